@@ -0,0 +1,87 @@
+package cscie97.asn1.benchmark;
+
+/**
+ * Minimal timing harness shared by the knowledge engine benchmarks. Each benchmark body is run
+ * for a number of warm-up iterations so the JIT compiles it, then for a number of measured
+ * iterations whose average throughput is printed.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * A unit of benchmark work. Returns a value derived from the work so the JIT cannot
+     * eliminate it as dead code.
+     */
+    public interface Body {
+        /**
+         * Runs one iteration of the benchmark.
+         *
+         * @return a value derived from the work done
+         * @throws Exception if the benchmark fails
+         */
+        long run() throws Exception;
+    }
+
+    // Accumulates benchmark results so they are never dead code
+    private static long blackhole;
+
+    private BenchmarkRunner() {}
+
+    /**
+     * Runs a benchmark and prints its throughput.
+     *
+     * @param name                    the name printed with the result
+     * @param warmupIterations        the number of iterations run before measuring
+     * @param measuredIterations      the number of iterations measured
+     * @param operationsPerIteration  the number of operations one iteration performs
+     * @param unit                    the name of one operation, such as "lines"
+     * @param body                    the benchmark body
+     * @return the average number of operations per second over the measured iterations
+     * @throws Exception if the benchmark body fails
+     */
+    public static double run(String name, int warmupIterations, int measuredIterations,
+            long operationsPerIteration, String unit, Body body) throws Exception {
+        return run(name, warmupIterations, measuredIterations, operationsPerIteration, unit, () -> 0, body);
+    }
+
+    /**
+     * Runs a benchmark that needs untimed preparation before each iteration, such as reloading
+     * data that the previous iteration removed, and prints its throughput.
+     *
+     * @param name                    the name printed with the result
+     * @param warmupIterations        the number of iterations run before measuring
+     * @param measuredIterations      the number of iterations measured
+     * @param operationsPerIteration  the number of operations one iteration performs
+     * @param unit                    the name of one operation, such as "lines"
+     * @param setup                   run before each iteration, outside the measured time
+     * @param body                    the benchmark body
+     * @return the average number of operations per second over the measured iterations
+     * @throws Exception if the setup or the benchmark body fails
+     */
+    public static double run(String name, int warmupIterations, int measuredIterations,
+            long operationsPerIteration, String unit, Body setup, Body body) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            blackhole += setup.run();
+            blackhole += body.run();
+        }
+        long elapsedNanos = 0;
+        for (int i = 0; i < measuredIterations; i++) {
+            blackhole += setup.run();
+            long start = System.nanoTime();
+            blackhole += body.run();
+            elapsedNanos += System.nanoTime() - start;
+        }
+        double perSecond = operationsPerIteration * (double) measuredIterations / (elapsedNanos / 1e9);
+        System.out.printf("%-40s %,15.0f %s/s%n", name, perSecond, unit);
+        return perSecond;
+    }
+
+    /**
+     * Returns the accumulated benchmark results. Printing it at the end of a benchmark keeps
+     * the results observable.
+     *
+     * @return the accumulated results
+     */
+    public static long blackhole() {
+        return blackhole;
+    }
+}
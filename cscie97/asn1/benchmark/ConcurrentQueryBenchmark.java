@@ -0,0 +1,101 @@
+package cscie97.asn1.benchmark;
+
+import cscie97.asn1.knowledge.engine.KnowledgeGraph;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-threaded stress benchmark for KnowledgeGraph. A writer thread keeps importing and
+ * removing triples while an increasing number of reader threads run queries, and the query
+ * throughput is printed for each reader count. Readers never take a lock, so throughput should
+ * grow with the number of cores.
+ * Usage: java -cp . cscie97.asn1.benchmark.ConcurrentQueryBenchmark [node count] [seconds per run]
+ */
+public class ConcurrentQueryBenchmark {
+
+    private static final int PREDICATE_COUNT = 20;
+
+    /**
+     * Main method that runs the benchmark.
+     *
+     * @param args optional command-line arguments: the number of nodes and the seconds per run
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+
+        for (int i = 0; i < nodeCount * 4; i++) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            graph.importTriple("node" + random.nextInt(nodeCount), "predicate" + random.nextInt(PREDICATE_COUNT),
+                    "node" + random.nextInt(nodeCount));
+        }
+
+        int maxReaders = Runtime.getRuntime().availableProcessors();
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            runWithReaders(graph, readers, nodeCount, seconds);
+        }
+    }
+
+    private static void runWithReaders(KnowledgeGraph graph, int readerCount, int nodeCount, int seconds)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder queries = new LongAdder();
+        LongAdder writes = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+
+        Thread writer = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                String subject = "node" + random.nextInt(nodeCount);
+                String predicate = "predicate" + random.nextInt(PREDICATE_COUNT);
+                graph.importTriple(subject, predicate, "node" + random.nextInt(nodeCount));
+                if (random.nextInt(4) == 0) {
+                    graph.removeTriplesBySubjectAndPredicate(subject, predicate);
+                }
+                writes.increment();
+            }
+        });
+        threads.add(writer);
+
+        for (int i = 0; i < readerCount; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long local = 0;
+                while (running.get()) {
+                    String node = "node" + random.nextInt(nodeCount);
+                    String predicate = "predicate" + random.nextInt(PREDICATE_COUNT);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            graph.executeQuery(node, predicate, "?");
+                            break;
+                        case 1:
+                            graph.executeQuery("?", predicate, node);
+                            break;
+                        default:
+                            graph.executeQuery(node, "?", "?");
+                            break;
+                    }
+                    local++;
+                }
+                queries.add(local);
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("%2d reader(s) + 1 writer: %,12.0f queries/s %,10.0f writes/s%n", readerCount,
+                queries.sum() / (double) seconds, writes.sum() / (double) seconds);
+    }
+}
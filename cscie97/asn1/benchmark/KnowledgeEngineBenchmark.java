@@ -0,0 +1,202 @@
+package cscie97.asn1.benchmark;
+
+import cscie97.asn1.knowledge.engine.Importer;
+import cscie97.asn1.knowledge.engine.KnowledgeGraph;
+import cscie97.asn1.knowledge.engine.PredicateStatistics;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark suite for the knowledge engine, run against a synthetic graph from
+ * SyntheticGraphGenerator. It measures the memory used per triple, the throughput of
+ * Importer.importTripleFile, of each of the eight combinations of bound and "?" terms in
+ * KnowledgeGraph.executeQuery, of fully bound queries for absent triples with and without the
+ * Bloom filter, and of the three removal operations. The query result cache is disabled, so the
+ * query numbers measure the triple index rather than cache hits.
+ *
+ * Run it with -Dcscie97.knowledge.offHeapStorage=true to measure the off-heap storage backend.
+ * Usage: java -cp . cscie97.asn1.benchmark.KnowledgeEngineBenchmark [node count] [fan-out]
+ * [predicate count] [predicate skew]
+ */
+public class KnowledgeEngineBenchmark {
+
+    private static final int SAMPLE_SIZE = 10_000;
+
+    /**
+     * Main method that runs the benchmark suite.
+     *
+     * @param args optional command-line arguments: the number of nodes, the number of triples per
+     *             subject, the number of predicates, and the Zipf skew of the predicates
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int fanOut = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int predicateCount = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        double predicateSkew = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+
+        SyntheticGraphGenerator generator = new SyntheticGraphGenerator(nodeCount, predicateCount, predicateSkew,
+                fanOut, 42);
+        System.out.println("Graph: " + generator + ", storage: "
+                + (Boolean.getBoolean(KnowledgeGraph.OFF_HEAP_STORAGE_PROPERTY) ? "off-heap" : "heap"));
+        Path file = Files.createTempFile("knowledge-benchmark", ".nt");
+        file.toFile().deleteOnExit();
+        generator.writeTo(file);
+        String[][] triples = generator.generate();
+
+        KnowledgeGraph graph = KnowledgeGraph.getInstance();
+        graph.configureQueryCache(0, 0);
+
+        measureMemory(graph, file);
+        benchmarkImport(graph, file, generator);
+        benchmarkQueries(graph, triples);
+        benchmarkRemovals(graph, triples, generator);
+
+        System.out.println("(" + BenchmarkRunner.blackhole() + ")");
+    }
+
+    /**
+     * Prints the heap and direct memory retained per triple after importing the file.
+     */
+    private static void measureMemory(KnowledgeGraph graph, Path file) throws Exception {
+        clear(graph);
+        long heapBefore = usedHeap();
+        long directBefore = usedDirectMemory();
+        new Importer().importTripleFile(file.toString());
+        long heapAfter = usedHeap();
+        long directAfter = usedDirectMemory();
+        int tripleCount = graph.getStatistics().getTripleCount();
+        System.out.printf("%-40s %,15d triples%n", "Graph size", tripleCount);
+        System.out.printf("%-40s %,15.1f bytes/triple%n", "Retained heap", (heapAfter - heapBefore) / (double) tripleCount);
+        System.out.printf("%-40s %,15.1f bytes/triple%n", "Retained direct memory",
+                (directAfter - directBefore) / (double) tripleCount);
+    }
+
+    private static void benchmarkImport(KnowledgeGraph graph, Path file, SyntheticGraphGenerator generator)
+            throws Exception {
+        BenchmarkRunner.run("Importer.importTripleFile", 1, 3, generator.tripleCount(), "triples",
+                () -> clear(graph), () -> {
+                    new Importer().importTripleFile(file.toString());
+                    return graph.getStatistics().getTripleCount();
+                });
+    }
+
+    /**
+     * Runs each of the eight query patterns with terms taken from sampled triples, so every
+     * bound term exists in the graph.
+     */
+    private static void benchmarkQueries(KnowledgeGraph graph, String[][] triples) throws Exception {
+        String[][] sample = sample(triples, SAMPLE_SIZE, 7);
+        for (int pattern = 7; pattern >= 0; pattern--) {
+            boolean s = (pattern & 4) != 0;
+            boolean p = (pattern & 2) != 0;
+            boolean o = (pattern & 1) != 0;
+            // Patterns bound by the predicate alone, or not at all, return a large share of the graph
+            int queryCount = s || o ? sample.length : p ? 20 : 1;
+            String name = String.format("executeQuery(%s, %s, %s)", s ? "s" : "?", p ? "p" : "?", o ? "o" : "?");
+            BenchmarkRunner.run(name, 2, 5, queryCount, "queries", () -> {
+                long total = 0;
+                for (int i = 0; i < queryCount; i++) {
+                    String[] triple = sample[i];
+                    total += graph.executeQuery(s ? triple[0] : "?", p ? triple[1] : "?", o ? triple[2] : "?").size();
+                }
+                return total;
+            });
+        }
+
+        // Existence checks for absent triples whose terms all exist, with and without the Bloom filter
+        String[][] misses = new String[SAMPLE_SIZE][];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            String[] triple = sample[i];
+            misses[i] = new String[] {triple[0], triple[1], sample[(i + 1) % SAMPLE_SIZE][2]};
+        }
+        for (double falsePositiveRate : new double[] {0, 0.01, 0.001}) {
+            graph.configureBloomFilter(falsePositiveRate);
+            BenchmarkRunner.run(String.format("executeQuery(s, p, o) misses, fpr %.3f", falsePositiveRate), 2, 5,
+                    misses.length, "queries", () -> {
+                        long total = 0;
+                        for (String[] triple : misses) {
+                            total += graph.executeQuery(triple[0], triple[1], triple[2]).size();
+                        }
+                        return total;
+                    });
+            if (falsePositiveRate > 0) {
+                System.out.println("  " + graph.getBloomFilterStatistics());
+            }
+        }
+    }
+
+    /**
+     * Runs each removal operation on the full graph, which is reloaded before every iteration.
+     */
+    private static void benchmarkRemovals(KnowledgeGraph graph, String[][] triples, SyntheticGraphGenerator generator)
+            throws Exception {
+        BenchmarkRunner.Body reload = () -> {
+            graph.importTriples(Arrays.asList(triples));
+            return graph.getStatistics().getTripleCount();
+        };
+
+        String[][] pairs = sample(triples, SAMPLE_SIZE, 11);
+        BenchmarkRunner.run("removeTriplesBySubjectAndPredicate", 1, 3, pairs.length, "removals", reload, () -> {
+            for (String[] pair : pairs) {
+                graph.removeTriplesBySubjectAndPredicate(pair[0], pair[1]);
+            }
+            return graph.getStatistics().getTripleCount();
+        });
+
+        String[][] subjects = sample(triples, SAMPLE_SIZE / 10, 13);
+        BenchmarkRunner.run("removeAllMentionsOfSubject", 1, 3, subjects.length, "removals", reload, () -> {
+            for (String[] subject : subjects) {
+                graph.removeAllMentionsOfSubject(subject[0]);
+            }
+            return graph.getStatistics().getTripleCount();
+        });
+
+        BenchmarkRunner.run("removeAllMentionsOfPredicate (all)", 1, 3, generator.tripleCount(), "triples", reload,
+                () -> clear(graph));
+    }
+
+    /**
+     * Removes every triple by removing each predicate in use.
+     *
+     * @return the number of triples left, which is 0
+     */
+    private static long clear(KnowledgeGraph graph) {
+        for (PredicateStatistics predicate : graph.getStatistics().getPredicateStatistics()) {
+            graph.removeAllMentionsOfPredicate(predicate.getPredicate());
+        }
+        return graph.getStatistics().getTripleCount();
+    }
+
+    private static String[][] sample(String[][] triples, int count, long seed) {
+        Random random = new Random(seed);
+        String[][] sample = new String[Math.min(count, triples.length)][];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = triples[random.nextInt(triples.length)];
+        }
+        return sample;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirectMemory() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
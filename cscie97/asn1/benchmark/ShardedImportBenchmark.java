@@ -0,0 +1,77 @@
+package cscie97.asn1.benchmark;
+
+import cscie97.asn1.knowledge.engine.KnowledgeGraph;
+import cscie97.asn1.knowledge.engine.ShardedKnowledgeGraph;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how import throughput scales with the number of shards of a ShardedKnowledgeGraph,
+ * against importing the same synthetic triples into one KnowledgeGraph. Triples are imported in
+ * batches from memory, so the numbers measure the graphs rather than file parsing. Shard counts
+ * are doubled up to the number of available processors; throughput should grow roughly linearly
+ * until then.
+ * Usage: java -cp . cscie97.asn1.benchmark.ShardedImportBenchmark [node count] [fan-out]
+ */
+public class ShardedImportBenchmark {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final String UNSHARDED_GRAPH_NAME = "sharded-import-benchmark";
+
+    /**
+     * Main method that runs the benchmark.
+     *
+     * @param args optional command-line arguments: the number of nodes and the number of triples
+     *             per subject
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int fanOut = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        SyntheticGraphGenerator generator = new SyntheticGraphGenerator(nodeCount, 50, 1.0, fanOut, 42);
+        System.out.println("Graph: " + generator);
+        String[][] triples = generator.generate();
+        List<String[]> tripleList = Arrays.asList(triples);
+
+        BenchmarkRunner.run("KnowledgeGraph.importTriples", 1, 3, triples.length, "triples",
+                () -> {
+                    KnowledgeGraph.dropGraph(UNSHARDED_GRAPH_NAME);
+                    return 0;
+                },
+                () -> {
+                    KnowledgeGraph graph = KnowledgeGraph.getInstance(UNSHARDED_GRAPH_NAME);
+                    for (int start = 0; start < triples.length; start += BATCH_SIZE) {
+                        graph.importTriples(tripleList.subList(start, Math.min(triples.length, start + BATCH_SIZE)));
+                    }
+                    return graph.getStatistics().getTripleCount();
+                });
+        KnowledgeGraph.dropGraph(UNSHARDED_GRAPH_NAME);
+
+        int maxShards = Runtime.getRuntime().availableProcessors();
+        for (int shards = 1; shards <= maxShards; shards *= 2) {
+            int shardCount = shards;
+            ShardedKnowledgeGraph[] graph = new ShardedKnowledgeGraph[1];
+            BenchmarkRunner.run("ShardedKnowledgeGraph, " + shardCount + " shards", 1, 3, triples.length,
+                    "triples",
+                    () -> {
+                        if (graph[0] != null) {
+                            graph[0].close();
+                        }
+                        graph[0] = new ShardedKnowledgeGraph(shardCount);
+                        return 0;
+                    },
+                    () -> {
+                        for (int start = 0; start < triples.length; start += BATCH_SIZE) {
+                            graph[0].importTriples(tripleList.subList(start,
+                                    Math.min(triples.length, start + BATCH_SIZE)));
+                        }
+                        graph[0].flush();
+                        return graph[0].getShardCount();
+                    });
+            System.out.println("  triples per shard: " + Arrays.toString(graph[0].getShardTripleCounts()));
+            graph[0].close();
+        }
+
+        System.out.println("(" + BenchmarkRunner.blackhole() + ")");
+    }
+}
@@ -0,0 +1,84 @@
+package cscie97.asn1.benchmark;
+
+import cscie97.asn1.knowledge.engine.CaseFoldingMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares the lookups per second of TreeMap(String.CASE_INSENSITIVE_ORDER), which the
+ * KnowledgeGraph dictionaries and the HouseMate model registry used to use, against
+ * CaseFoldingMap. Lookups use keys in a different case from the one they were inserted with, so
+ * every lookup has to fold.
+ * Usage: java -cp . cscie97.asn1.benchmark.SymbolTableBenchmark [key count]
+ */
+public class SymbolTableBenchmark {
+
+    private static final int LOOKUPS_PER_ITERATION = 1_000_000;
+
+    /**
+     * Main method that runs the benchmark.
+     *
+     * @param args optional command-line argument: the number of keys in each map
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] keys = generateKeys(keyCount);
+        String[] probes = generateProbes(keys);
+
+        Map<String, Integer> treeMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        fill(treeMap, keys);
+        run("TreeMap(CASE_INSENSITIVE_ORDER)", treeMap, probes);
+        treeMap = null;
+
+        Map<String, Integer> caseFoldingMap = new CaseFoldingMap<>();
+        fill(caseFoldingMap, keys);
+        run("CaseFoldingMap", caseFoldingMap, probes);
+
+        System.out.println("(" + BenchmarkRunner.blackhole() + ")");
+    }
+
+    private static void run(String name, Map<String, Integer> map, String[] probes) throws Exception {
+        BenchmarkRunner.run(name + " get", 3, 5, probes.length, "lookups", () -> {
+            long total = 0;
+            for (String probe : probes) {
+                Integer value = map.get(probe);
+                if (value != null) {
+                    total += value;
+                }
+            }
+            return total;
+        });
+    }
+
+    private static void fill(Map<String, Integer> map, String[] keys) {
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        if (map.size() != keys.length) {
+            throw new IllegalStateException("Expected " + keys.length + " keys but found " + map.size());
+        }
+    }
+
+    // Identifiers shaped like the ones in the sample triple files
+    private static String[] generateKeys(int keyCount) {
+        String[] prefixes = {"Node_", "Person_", "House1:Kitchen:Appliance_", "predicate_"};
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = prefixes[i % prefixes.length] + Integer.toString(i, 36) + "_Id";
+        }
+        return keys;
+    }
+
+    // Random keys with their case changed, in a random order so lookups miss the CPU caches
+    private static String[] generateProbes(String[] keys) {
+        Random random = new Random(42);
+        String[] probes = new String[LOOKUPS_PER_ITERATION];
+        for (int i = 0; i < probes.length; i++) {
+            String key = keys[random.nextInt(keys.length)];
+            probes[i] = random.nextBoolean() ? key.toUpperCase() : key.toLowerCase();
+        }
+        return probes;
+    }
+}
@@ -0,0 +1,148 @@
+package cscie97.asn1.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates reproducible synthetic triples for the knowledge engine benchmarks. Every node is
+ * the subject of fanOut triples; each triple's object is a uniformly random node and its
+ * predicate is drawn from a Zipf distribution, so with a skew above 0 a few predicates are used
+ * by most triples, as is_located_in_room is in HouseMate. Duplicate triples are possible, so the
+ * graph may end up slightly smaller than nodeCount * fanOut.
+ */
+public class SyntheticGraphGenerator {
+
+    private final int nodeCount;
+    private final int predicateCount;
+    private final double predicateSkew;
+    private final int fanOut;
+    private final long seed;
+    // Cumulative probability of predicates 0..i
+    private final double[] predicateDistribution;
+
+    /**
+     * Constructs a generator.
+     *
+     * @param nodeCount      the number of distinct nodes
+     * @param predicateCount the number of distinct predicates
+     * @param predicateSkew  the Zipf exponent of the predicate distribution; 0 is uniform
+     * @param fanOut         the number of triples generated with each node as subject
+     * @param seed           the random seed, so the same arguments generate the same triples
+     */
+    public SyntheticGraphGenerator(int nodeCount, int predicateCount, double predicateSkew, int fanOut, long seed) {
+        if (nodeCount < 1 || predicateCount < 1 || fanOut < 1) {
+            throw new IllegalArgumentException("Node count, predicate count, and fan-out must be positive");
+        }
+        this.nodeCount = nodeCount;
+        this.predicateCount = predicateCount;
+        this.predicateSkew = predicateSkew;
+        this.fanOut = fanOut;
+        this.seed = seed;
+
+        predicateDistribution = new double[predicateCount];
+        double total = 0;
+        for (int i = 0; i < predicateCount; i++) {
+            total += 1.0 / Math.pow(i + 1, predicateSkew);
+            predicateDistribution[i] = total;
+        }
+        for (int i = 0; i < predicateCount; i++) {
+            predicateDistribution[i] /= total;
+        }
+    }
+
+    /**
+     * Returns the number of triples generated, including any duplicates.
+     *
+     * @return nodeCount * fanOut
+     */
+    public long tripleCount() {
+        return (long) nodeCount * fanOut;
+    }
+
+    /**
+     * Generates the triples as subject, predicate, object arrays, in subject order.
+     *
+     * @return the generated triples
+     */
+    public String[][] generate() {
+        if (tripleCount() > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many triples to hold in an array: " + tripleCount());
+        }
+        String[][] triples = new String[(int) tripleCount()][];
+        Random random = new Random(seed);
+        int next = 0;
+        for (int subject = 0; subject < nodeCount; subject++) {
+            for (int edge = 0; edge < fanOut; edge++) {
+                triples[next++] = new String[] {node(subject), predicate(random), node(random.nextInt(nodeCount))};
+            }
+        }
+        return triples;
+    }
+
+    /**
+     * Writes the generated triples to a file in the format Importer reads, one per line.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path file) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int subject = 0; subject < nodeCount; subject++) {
+                for (int edge = 0; edge < fanOut; edge++) {
+                    writer.write(node(subject));
+                    writer.write(' ');
+                    writer.write(predicate(random));
+                    writer.write(' ');
+                    writer.write(node(random.nextInt(nodeCount)));
+                    writer.write(" .\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the identifier of a node.
+     *
+     * @param index the node number, from 0 to nodeCount - 1
+     * @return the node identifier
+     */
+    public static String node(int index) {
+        return "Node_" + index;
+    }
+
+    /**
+     * Returns the identifier of a predicate. Predicate 0 is the most frequent.
+     *
+     * @param index the predicate number, from 0 to predicateCount - 1
+     * @return the predicate identifier
+     */
+    public static String predicate(int index) {
+        return "predicate_" + index;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d nodes x fan-out %d, %d predicates with skew %.2f", nodeCount, fanOut,
+                predicateCount, predicateSkew);
+    }
+
+    private String predicate(Random random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = predicateCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (predicateDistribution[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return predicate(low);
+    }
+}
@@ -0,0 +1,81 @@
+package cscie97.asn1.benchmark;
+
+import cscie97.asn1.knowledge.engine.TripleTokenizer;
+import java.util.Random;
+
+/**
+ * Compares the lines per second of the trim/substring/split("\\s+") parsing that Importer and
+ * QueryEngine used to do against TripleTokenizer.
+ * Usage: java -cp . cscie97.asn1.benchmark.TokenizerBenchmark [line count]
+ */
+public class TokenizerBenchmark {
+
+    /**
+     * Main method that runs the benchmark.
+     *
+     * @param args optional command-line argument: the number of lines to parse per iteration
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] lines = generateLines(lineCount);
+
+        BenchmarkRunner.run("split(\"\\\\s+\") parsing", 5, 10, lineCount, "lines", () -> {
+            long total = 0;
+            for (String line : lines) {
+                String[] parts = splitParse(line);
+                total += parts[0].length() + parts[1].length() + parts[2].length();
+            }
+            return total;
+        });
+
+        TripleTokenizer tokenizer = new TripleTokenizer();
+        BenchmarkRunner.run("TripleTokenizer (validate only)", 5, 10, lineCount, "lines", () -> {
+            long total = 0;
+            for (String line : lines) {
+                if (tokenizer.tokenize(line) == TripleTokenizer.Result.TRIPLE && !tokenizer.hasWildcard()) {
+                    total++;
+                }
+            }
+            return total;
+        });
+
+        BenchmarkRunner.run("TripleTokenizer (terms as Strings)", 5, 10, lineCount, "lines", () -> {
+            long total = 0;
+            for (String line : lines) {
+                tokenizer.tokenize(line);
+                total += tokenizer.subject().length() + tokenizer.predicate().length() + tokenizer.object().length();
+            }
+            return total;
+        });
+
+        System.out.println("(" + BenchmarkRunner.blackhole() + ")");
+    }
+
+    // The parsing Importer.importTripleFile did before TripleTokenizer
+    private static String[] splitParse(String line) {
+        if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+            line = line.substring(1);
+        }
+        line = line.trim();
+        if (line.charAt(line.length() - 1) != '.') {
+            throw new IllegalStateException(line);
+        }
+        line = line.substring(0, line.length() - 1).trim();
+        String[] parts = line.trim().split("\\s+");
+        if (parts.length != 3 || parts[0].trim().equals("?") || parts[1].trim().equals("?") || parts[2].trim().equals("?")) {
+            throw new IllegalStateException(line);
+        }
+        return new String[] {parts[0].trim(), parts[1].trim(), parts[2].trim()};
+    }
+
+    private static String[] generateLines(int lineCount) {
+        Random random = new Random(42);
+        String[] lines = new String[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            lines[i] = "Node" + random.nextInt(100_000) + " predicate_" + random.nextInt(50)
+                    + "  Node" + random.nextInt(100_000) + " .";
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,142 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Snapshot of the counters of the Bloom filter that KnowledgeGraph checks fully bound queries
+ * against before reading the triple index.
+ */
+public class BloomFilterStatistics {
+    private final double configuredFalsePositiveRate;
+    private final double expectedFalsePositiveRate;
+    private final long lookups;
+    private final long negatives;
+    private final long falsePositives;
+    private final int size;
+    private final int capacity;
+    private final int hashFunctions;
+    private final long memoryBytes;
+
+    /**
+     * Constructs a BloomFilterStatistics snapshot.
+     *
+     * @param configuredFalsePositiveRate the false-positive rate the filter is sized for
+     * @param expectedFalsePositiveRate   the false-positive rate expected for the triples currently held
+     * @param lookups                     the number of fully bound queries checked against the filter
+     * @param negatives                   the number of queries the filter answered as absent
+     * @param falsePositives              the number of queries the filter let through that matched nothing
+     * @param size                        the number of triples in the filter
+     * @param capacity                    the number of triples the filter is sized for
+     * @param hashFunctions               the number of counters each triple sets
+     * @param memoryBytes                 the size of the counters in bytes
+     */
+    public BloomFilterStatistics(double configuredFalsePositiveRate, double expectedFalsePositiveRate, long lookups,
+            long negatives, long falsePositives, int size, int capacity, int hashFunctions, long memoryBytes) {
+        this.configuredFalsePositiveRate = configuredFalsePositiveRate;
+        this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+        this.lookups = lookups;
+        this.negatives = negatives;
+        this.falsePositives = falsePositives;
+        this.size = size;
+        this.capacity = capacity;
+        this.hashFunctions = hashFunctions;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Returns the false-positive rate the filter is sized for.
+     *
+     * @return the configured rate, or 0 if the filter is disabled
+     */
+    public double getConfiguredFalsePositiveRate() {
+        return configuredFalsePositiveRate;
+    }
+
+    /**
+     * Returns the false-positive rate expected from how full the filter is.
+     *
+     * @return the expected rate between 0 and 1
+     */
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    /**
+     * Returns the number of fully bound queries checked against the filter.
+     *
+     * @return the number of lookups
+     */
+    public long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Returns the number of queries answered as absent without reading the triple index.
+     *
+     * @return the number of negative lookups
+     */
+    public long getNegatives() {
+        return negatives;
+    }
+
+    /**
+     * Returns the number of queries the filter let through that matched no triple.
+     *
+     * @return the number of false positives
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Returns the fraction of queries for absent triples that the filter let through.
+     *
+     * @return the observed rate between 0 and 1, or 0 if no query was for an absent triple
+     */
+    public double getObservedFalsePositiveRate() {
+        long absent = negatives + falsePositives;
+        return absent == 0 ? 0.0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * Returns the number of triples in the filter.
+     *
+     * @return the number of triples
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of triples the filter is sized for before it is grown.
+     *
+     * @return the capacity of the filter
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of counters each triple sets.
+     *
+     * @return the number of hash functions
+     */
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * Returns the memory used by the filter's counters.
+     *
+     * @return the size in bytes
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BloomFilterStatistics{configuredFpr=%.4f, expectedFpr=%.4f, observedFpr=%.4f, lookups=%d, "
+                + "negatives=%d, falsePositives=%d, size=%d, capacity=%d, hashFunctions=%d, memoryBytes=%d}",
+                configuredFalsePositiveRate, expectedFalsePositiveRate, getObservedFalsePositiveRate(), lookups,
+                negatives, falsePositives, size, capacity, hashFunctions, memoryBytes);
+    }
+}
@@ -0,0 +1,339 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map with case-insensitive String keys, a hash-based replacement for
+ * TreeMap(String.CASE_INSENSITIVE_ORDER). Each key is case-folded once when it is inserted, and
+ * the folded key and its hash are stored with the entry, so a lookup folds the probe key once and
+ * then compares precomputed hashes instead of calling compareToIgnoreCase O(log n) times.
+ *
+ * The map behaves like the TreeMap it replaces: two keys are the same key exactly when
+ * compareToIgnoreCase returns 0, the first spelling inserted for a key is the one kept, and
+ * iteration is in String.CASE_INSENSITIVE_ORDER. The sorted order is computed when the map is
+ * first iterated after a change, so iteration is O(n log n) after a modification and O(n) otherwise.
+ *
+ * Calls that modify the map must be serialized by the caller, but any number of threads may read
+ * it without locking while one thread writes: a reader sees each entry either before or after a
+ * concurrent change, never partially written.
+ *
+ * @param <V> the type of mapped values
+ */
+public class CaseFoldingMap<V> extends AbstractMap<String, V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // Marks a removed slot, so probing continues past it
+    private static final Slot<?> REMOVED = new Slot<>(null, null, 0, null);
+
+    // Replaced, never resized in place, so readers always see a fully populated table
+    private volatile AtomicReferenceArray<Slot<V>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int size;
+    private int usedSlots;
+    // Entries in key order, or null if the map changed since they were last sorted
+    private volatile List<Map.Entry<String, V>> sortedEntries;
+
+    /**
+     * Constructs an empty map.
+     */
+    public CaseFoldingMap() {}
+
+    /**
+     * Constructs a map with the same mappings as the specified map.
+     *
+     * @param map the mappings to copy
+     */
+    public CaseFoldingMap(Map<String, ? extends V> map) {
+        putAll(map);
+    }
+
+    @Override
+    public V get(Object key) {
+        Slot<V> slot = find(key);
+        return slot == null ? null : slot.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Associates the value with the key. If the map already has the key in any spelling, the
+     * value is replaced and the existing spelling of the key is kept.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value for the key, or null if there was none
+     * @throws NullPointerException if the key is null
+     */
+    @Override
+    public V put(String key, V value) {
+        String folded = fold(key);
+        int hash = hash(folded);
+        if ((usedSlots + 1) * 2 > table.length()) {
+            rehash(size * 4 > table.length() ? table.length() * 2 : table.length());
+        }
+        AtomicReferenceArray<Slot<V>> slots = table;
+        int mask = slots.length() - 1;
+        int insertAt = -1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Slot<V> slot = slots.get(i);
+            if (slot == null) {
+                if (insertAt < 0) {
+                    insertAt = i;
+                    usedSlots++;
+                }
+                break;
+            }
+            if (slot == REMOVED) {
+                if (insertAt < 0) {
+                    insertAt = i;
+                }
+            } else if (slot.hash == hash && slot.folded.equals(folded)) {
+                slots.set(i, new Slot<>(slot.key, slot.folded, hash, value));
+                sortedEntries = null;
+                return slot.value;
+            }
+        }
+        slots.set(insertAt, new Slot<>(key, folded, hash, value));
+        size++;
+        sortedEntries = null;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String folded = fold((String) key);
+        int hash = hash(folded);
+        AtomicReferenceArray<Slot<V>> slots = table;
+        int mask = slots.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Slot<V> slot = slots.get(i);
+            if (slot == null) {
+                return null;
+            }
+            if (slot != REMOVED && slot.hash == hash && slot.folded.equals(folded)) {
+                slots.set(i, removed());
+                size--;
+                sortedEntries = null;
+                return slot.value;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        size = 0;
+        usedSlots = 0;
+        sortedEntries = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entries in String.CASE_INSENSITIVE_ORDER of their keys. Removing through the
+     * iterator or setting an entry's value writes through to the map.
+     */
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                Iterator<Map.Entry<String, V>> entries = sorted().iterator();
+                return new Iterator<Map.Entry<String, V>>() {
+                    private Map.Entry<String, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, V> next() {
+                        if (!entries.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        last = entries.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        CaseFoldingMap.this.remove(last.getKey());
+                        last = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns a snapshot of the values in no particular order. Cheaper than values() when the
+     * caller does not need key order, since it skips sorting the keys.
+     *
+     * @return the values
+     */
+    public List<V> unorderedValues() {
+        AtomicReferenceArray<Slot<V>> slots = table;
+        List<V> values = new ArrayList<>(size);
+        for (int i = 0; i < slots.length(); i++) {
+            Slot<V> slot = slots.get(i);
+            if (slot != null && slot != REMOVED) {
+                values.add(slot.value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Case-folds a string so that two strings compare equal under
+     * String.CASE_INSENSITIVE_ORDER exactly when their folded forms are equal.
+     * Returns the string itself when folding would not change it.
+     *
+     * @param key the string to fold
+     * @return the folded string
+     */
+    public static String fold(String key) {
+        int length = key.length();
+        int i = 0;
+        while (i < length && foldChar(key.charAt(i)) == key.charAt(i)) {
+            i++;
+        }
+        if (i == length) {
+            return key;
+        }
+        char[] folded = key.toCharArray();
+        for (; i < length; i++) {
+            folded[i] = foldChar(folded[i]);
+        }
+        return new String(folded);
+    }
+
+    private static char foldChar(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private Slot<V> find(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String folded = fold((String) key);
+        int hash = hash(folded);
+        AtomicReferenceArray<Slot<V>> slots = table;
+        int mask = slots.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Slot<V> slot = slots.get(i);
+            if (slot == null) {
+                return null;
+            }
+            if (slot != REMOVED && slot.hash == hash && slot.folded.equals(folded)) {
+                return slot;
+            }
+        }
+    }
+
+    private List<Map.Entry<String, V>> sorted() {
+        List<Map.Entry<String, V>> entries = sortedEntries;
+        if (entries != null) {
+            return entries;
+        }
+        AtomicReferenceArray<Slot<V>> slots = table;
+        entries = new ArrayList<>(size);
+        for (int i = 0; i < slots.length(); i++) {
+            Slot<V> slot = slots.get(i);
+            if (slot != null && slot != REMOVED) {
+                entries.add(new Entry(slot.key, slot.value));
+            }
+        }
+        entries.sort((a, b) -> String.CASE_INSENSITIVE_ORDER.compare(a.getKey(), b.getKey()));
+        sortedEntries = entries;
+        return entries;
+    }
+
+    /**
+     * Rebuilds the table with the specified capacity, dropping removed slots.
+     */
+    private void rehash(int capacity) {
+        AtomicReferenceArray<Slot<V>> old = table;
+        AtomicReferenceArray<Slot<V>> rebuilt = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            Slot<V> slot = old.get(i);
+            if (slot == null || slot == REMOVED) {
+                continue;
+            }
+            int index = slot.hash & mask;
+            while (rebuilt.get(index) != null) {
+                index = (index + 1) & mask;
+            }
+            rebuilt.set(index, slot);
+        }
+        table = rebuilt;
+        usedSlots = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Slot<V> removed() {
+        return (Slot<V>) REMOVED;
+    }
+
+    private static int hash(String folded) {
+        int h = folded.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * An immutable table entry: the key as first inserted, its folded form and hash, and the value.
+     */
+    private static final class Slot<V> {
+        final String key;
+        final String folded;
+        final int hash;
+        final V value;
+
+        Slot(String key, String folded, int hash, V value) {
+            this.key = key;
+            this.folded = folded;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    /**
+     * An entry returned by iteration; setValue writes through to the map.
+     */
+    private final class Entry extends AbstractMap.SimpleEntry<String, V> {
+        Entry(String key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
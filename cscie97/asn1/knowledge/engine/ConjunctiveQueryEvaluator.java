@@ -0,0 +1,269 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a conjunctive query, a list of TriplePatterns that share named variables, against
+ * the triple index. Patterns are joined in order of their estimated cardinality, starting with
+ * the most selective one and preferring patterns that share a variable with the patterns already
+ * joined. Each join either probes the index once per intermediate row with the shared variables
+ * substituted (an index nested-loop join), or scans the pattern once and joins through a hash
+ * table on the shared variables (a hash join), whichever reads fewer triples.
+ */
+final class ConjunctiveQueryEvaluator {
+
+    // Cardinality estimates are exact up to this count
+    private static final int ESTIMATE_LIMIT = 10_000;
+    private static final int UNBOUND = -1;
+    private static final int NO_SLOT = -1;
+
+    private final IdentifierDictionary<Node> nodeDictionary;
+    private final IdentifierDictionary<Predicate> predicateDictionary;
+    private final TripleIndex tripleIndex;
+
+    // Variable names in order of first appearance; the index of a name is its slot in a row
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> slotsByVariable = new HashMap<>();
+    private final Set<String> predicateVariables = new LinkedHashSet<>();
+    private final Set<String> nodeVariables = new LinkedHashSet<>();
+
+    /**
+     * Constructs an evaluator that reads from the specified dictionaries and index.
+     *
+     * @param nodeDictionary      the node dictionary of the graph
+     * @param predicateDictionary the predicate dictionary of the graph
+     * @param tripleIndex         the triple index of the graph
+     */
+    ConjunctiveQueryEvaluator(IdentifierDictionary<Node> nodeDictionary,
+            IdentifierDictionary<Predicate> predicateDictionary, TripleIndex tripleIndex) {
+        this.nodeDictionary = nodeDictionary;
+        this.predicateDictionary = predicateDictionary;
+        this.tripleIndex = tripleIndex;
+    }
+
+    /**
+     * Evaluates the query and returns one binding of variable names to identifiers for each
+     * distinct solution.
+     *
+     * @param patterns the patterns of the query
+     * @return the distinct solutions, each mapping every variable name to an identifier
+     * @throws IllegalArgumentException if a variable is used both as a predicate and as a node
+     */
+    List<Map<String, String>> evaluate(List<TriplePattern> patterns) {
+        List<EncodedPattern> remaining = new ArrayList<>();
+        for (TriplePattern pattern : patterns) {
+            EncodedPattern encoded = encode(pattern);
+            if (encoded == null) {
+                // An identifier that was never imported cannot match anything
+                return new ArrayList<>();
+            }
+            remaining.add(encoded);
+        }
+        for (String variable : predicateVariables) {
+            if (nodeVariables.contains(variable)) {
+                throw new IllegalArgumentException("Variable " + variable + " cannot be used as both a predicate and a node");
+            }
+        }
+
+        List<int[]> rows = new ArrayList<>();
+        int[] emptyRow = new int[variables.size()];
+        Arrays.fill(emptyRow, UNBOUND);
+        rows.add(emptyRow);
+        boolean[] bound = new boolean[variables.size()];
+
+        while (!remaining.isEmpty() && !rows.isEmpty()) {
+            EncodedPattern next = chooseNext(remaining, bound);
+            remaining.remove(next);
+            rows = join(rows, next, bound);
+            for (int slot : next.slots) {
+                if (slot != NO_SLOT) {
+                    bound[slot] = true;
+                }
+            }
+        }
+
+        Set<Map<String, String>> solutions = new LinkedHashSet<>();
+        for (int[] row : rows) {
+            Map<String, String> solution = new LinkedHashMap<>();
+            for (int slot = 0; slot < variables.size(); slot++) {
+                String variable = variables.get(slot);
+                String identifier = predicateVariables.contains(variable)
+                        ? predicateDictionary.get(row[slot]).getIdentifier()
+                        : nodeDictionary.get(row[slot]).getIdentifier();
+                solution.put(variable, identifier);
+            }
+            solutions.add(solution);
+        }
+        return new ArrayList<>(solutions);
+    }
+
+    /**
+     * Picks the pattern to join next: the one with the smallest estimated cardinality among the
+     * patterns sharing a variable with those already joined, or among all remaining patterns if
+     * none shares a variable.
+     */
+    private EncodedPattern chooseNext(List<EncodedPattern> remaining, boolean[] bound) {
+        EncodedPattern best = null;
+        boolean bestConnected = false;
+        for (EncodedPattern candidate : remaining) {
+            boolean connected = false;
+            for (int slot : candidate.slots) {
+                if (slot != NO_SLOT && bound[slot]) {
+                    connected = true;
+                }
+            }
+            if (best == null || (connected && !bestConnected)
+                    || (connected == bestConnected && candidate.estimate < best.estimate)) {
+                best = candidate;
+                bestConnected = connected;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Joins the intermediate rows with the matches of a pattern.
+     */
+    private List<int[]> join(List<int[]> rows, EncodedPattern pattern, boolean[] bound) {
+        boolean shared = false;
+        for (int slot : pattern.slots) {
+            if (slot != NO_SLOT && bound[slot]) {
+                shared = true;
+            }
+        }
+
+        List<int[]> joined = new ArrayList<>();
+        if (!shared) {
+            // Cartesian product; the pattern is scanned once
+            List<EncodedTriple> matches = new ArrayList<>(scan(pattern.constants));
+            for (int[] row : rows) {
+                for (EncodedTriple match : matches) {
+                    extend(row, match, pattern, joined);
+                }
+            }
+        } else if (rows.size() < pattern.estimate) {
+            // Index nested-loop join: substitute the bound variables and probe the index per row
+            for (int[] row : rows) {
+                int[] probe = pattern.constants.clone();
+                for (int position = 0; position < 3; position++) {
+                    int slot = pattern.slots[position];
+                    if (slot != NO_SLOT && bound[slot]) {
+                        probe[position] = row[slot];
+                    }
+                }
+                for (EncodedTriple match : scan(probe)) {
+                    extend(row, match, pattern, joined);
+                }
+            }
+        } else {
+            // Hash join: scan the pattern once, keyed on the positions of the shared variables
+            Map<EncodedTriple, List<EncodedTriple>> matchesByKey = new HashMap<>();
+            for (EncodedTriple match : scan(pattern.constants)) {
+                int[] key = new int[] {EncodedTriple.WILDCARD, EncodedTriple.WILDCARD, EncodedTriple.WILDCARD};
+                for (int position = 0; position < 3; position++) {
+                    int slot = pattern.slots[position];
+                    if (slot != NO_SLOT && bound[slot]) {
+                        key[position] = idAt(match, position);
+                    }
+                }
+                matchesByKey.computeIfAbsent(EncodedTriple.pattern(key[0], key[1], key[2]), k -> new ArrayList<>())
+                        .add(match);
+            }
+            for (int[] row : rows) {
+                int[] key = new int[] {EncodedTriple.WILDCARD, EncodedTriple.WILDCARD, EncodedTriple.WILDCARD};
+                for (int position = 0; position < 3; position++) {
+                    int slot = pattern.slots[position];
+                    if (slot != NO_SLOT && bound[slot]) {
+                        key[position] = row[slot];
+                    }
+                }
+                List<EncodedTriple> matches = matchesByKey.get(EncodedTriple.pattern(key[0], key[1], key[2]));
+                if (matches != null) {
+                    for (EncodedTriple match : matches) {
+                        extend(row, match, pattern, joined);
+                    }
+                }
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Adds the row extended with the variables the match binds, unless the match conflicts with
+     * a variable the row has already bound (or binds a repeated variable inconsistently).
+     */
+    private void extend(int[] row, EncodedTriple match, EncodedPattern pattern, List<int[]> joined) {
+        int[] extended = row.clone();
+        for (int position = 0; position < 3; position++) {
+            int slot = pattern.slots[position];
+            if (slot == NO_SLOT) {
+                continue;
+            }
+            int id = idAt(match, position);
+            if (extended[slot] == UNBOUND) {
+                extended[slot] = id;
+            } else if (extended[slot] != id) {
+                return;
+            }
+        }
+        joined.add(extended);
+    }
+
+    private Collection<EncodedTriple> scan(int[] terms) {
+        return tripleIndex.scan(terms[0], terms[1], terms[2]);
+    }
+
+    private static int idAt(EncodedTriple triple, int position) {
+        return position == 0 ? triple.subject : position == 1 ? triple.predicate : triple.object;
+    }
+
+    /**
+     * Encodes the constants of a pattern and assigns slots to its variables.
+     *
+     * @return the encoded pattern, or null if a constant is not in the graph
+     */
+    private EncodedPattern encode(TriplePattern pattern) {
+        String[] terms = {pattern.getSubject(), pattern.getPredicate(), pattern.getObject()};
+        EncodedPattern encoded = new EncodedPattern();
+        for (int position = 0; position < 3; position++) {
+            String term = terms[position];
+            encoded.constants[position] = EncodedTriple.WILDCARD;
+            encoded.slots[position] = NO_SLOT;
+            if (TriplePattern.isVariable(term)) {
+                encoded.slots[position] = slotsByVariable.computeIfAbsent(term, name -> {
+                    variables.add(name);
+                    return variables.size() - 1;
+                });
+                (position == 1 ? predicateVariables : nodeVariables).add(term);
+            } else if (!"?".equals(term)) {
+                int id = position == 1 ? predicateDictionary.lookup(term) : nodeDictionary.lookup(term);
+                if (id == IdentifierDictionary.NOT_FOUND) {
+                    return null;
+                }
+                encoded.constants[position] = id;
+            }
+        }
+        encoded.estimate = tripleIndex.count(encoded.constants[0], encoded.constants[1], encoded.constants[2],
+                ESTIMATE_LIMIT);
+        return encoded;
+    }
+
+    /**
+     * A pattern with its constants encoded as IDs and its variables as row slots.
+     */
+    private static class EncodedPattern {
+        // The ID of each constant position, or WILDCARD for variables and "?"
+        private final int[] constants = new int[3];
+        // The row slot of each variable position, or NO_SLOT
+        private final int[] slots = new int[3];
+        private int estimate;
+    }
+}
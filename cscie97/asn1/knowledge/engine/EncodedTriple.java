@@ -0,0 +1,65 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Compact form of a Triple stored inside the KnowledgeGraph. The subject, predicate, and object
+ * are held as the int IDs assigned by the node and predicate dictionaries, so a stored triple
+ * carries no Strings of its own. Triple objects are only materialized when a query returns them.
+ */
+final class EncodedTriple {
+
+    /** Marks a position of a query pattern that matches any ID. */
+    static final int WILDCARD = -1;
+
+    final int subject;
+    final int predicate;
+    final int object;
+    final long createDate;
+
+    /**
+     * Constructs an EncodedTriple with the specified IDs and creation date.
+     *
+     * @param subject    the subject Node ID
+     * @param predicate  the Predicate ID
+     * @param object     the object Node ID
+     * @param createDate the creation date as a UNIX timestamp (seconds since epoch)
+     */
+    EncodedTriple(int subject, int predicate, int object, long createDate) {
+        this.subject = subject;
+        this.predicate = predicate;
+        this.object = object;
+        this.createDate = createDate;
+    }
+
+    /**
+     * Creates a query pattern key. Any position may be WILDCARD.
+     *
+     * @param subject   the subject Node ID, or WILDCARD
+     * @param predicate the Predicate ID, or WILDCARD
+     * @param object    the object Node ID, or WILDCARD
+     * @return the pattern key
+     */
+    static EncodedTriple pattern(int subject, int predicate, int object) {
+        return new EncodedTriple(subject, predicate, object, 0L);
+    }
+
+    /**
+     * Two EncodedTriples are equal when their subject, predicate, and object IDs are equal.
+     * The creation date is not part of the identity of a triple.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof EncodedTriple)) {
+            return false;
+        }
+        EncodedTriple that = (EncodedTriple) other;
+        return subject == that.subject && predicate == that.predicate && object == that.object;
+    }
+
+    @Override
+    public int hashCode() {
+        return (subject * 31 + predicate) * 31 + object;
+    }
+}
@@ -0,0 +1,354 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes binary snapshots of the knowledge graph. A snapshot stores the node and
+ * predicate dictionaries followed by the triples as encoded IDs, so a restart rebuilds the graph
+ * without parsing and re-interning every line of the original triple files.
+ *
+ * The format, with every number big-endian:
+ * <pre>
+ *   int    magic ("KGSN")
+ *   int    format version
+ *   int    node count, then per node: long createDate, int length, UTF-8 identifier bytes
+ *   int    predicate count, then per predicate: the same layout as a node
+ *   long   triple count, then per triple in SPO order: int subject, int predicate, int object, long createDate
+ *   long   CRC32C of all preceding bytes
+ * </pre>
+ * Node and predicate IDs in the file are their positions in the dictionary sections, so the
+ * graph's own IDs (which may have gaps after removals) are renumbered densely on save.
+ */
+final class GraphSnapshot {
+
+    static final int MAGIC = 0x4B47534E;
+    static final int FORMAT_VERSION = 1;
+
+    // Size of the file regions mapped at once while loading
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private static final int CHECKSUM_SIZE = Long.BYTES;
+
+    private GraphSnapshot() {}
+
+    /**
+     * Writes a snapshot of the dictionaries and index to the specified file. The snapshot is
+     * written to a temporary file next to it, synced, and then moved into place, so an existing
+     * snapshot is never left half written. The caller must keep the graph from changing during the save.
+     *
+     * @param file                the file to write
+     * @param nodeDictionary      the node dictionary of the graph
+     * @param predicateDictionary the predicate dictionary of the graph
+     * @param tripleIndex         the triple index of the graph
+     * @throws PersistenceException if the snapshot cannot be written
+     */
+    static void save(Path file, IdentifierDictionary<Node> nodeDictionary,
+            IdentifierDictionary<Predicate> predicateDictionary, TripleIndex tripleIndex) throws PersistenceException {
+        writeFile(file, out -> {
+            int[] nodeIds = nodeDictionary.ids();
+            int[] nodeIndexById = new int[maxId(nodeIds) + 1];
+            out.writeInt(nodeIds.length);
+            for (int i = 0; i < nodeIds.length; i++) {
+                Node node = nodeDictionary.get(nodeIds[i]);
+                nodeIndexById[nodeIds[i]] = i;
+                writeIdentifier(out, node.getIdentifier(), node.getCreateDate());
+            }
+
+            int[] predicateIds = predicateDictionary.ids();
+            int[] predicateIndexById = new int[maxId(predicateIds) + 1];
+            out.writeInt(predicateIds.length);
+            for (int i = 0; i < predicateIds.length; i++) {
+                Predicate predicate = predicateDictionary.get(predicateIds[i]);
+                predicateIndexById[predicateIds[i]] = i;
+                writeIdentifier(out, predicate.getIdentifier(), predicate.getCreateDate());
+            }
+
+            out.writeLong(tripleIndex.size());
+            for (EncodedTriple triple : tripleIndex.all()) {
+                out.writeInt(nodeIndexById[triple.subject]);
+                out.writeInt(predicateIndexById[triple.predicate]);
+                out.writeInt(nodeIndexById[triple.object]);
+                out.writeLong(triple.createDate);
+            }
+        });
+    }
+
+    /**
+     * Copies the dictionaries and index into memory, so that a snapshot of them can be written
+     * by save(Path, Image) while the graph goes on changing. Copying is much faster than writing
+     * the file, so the caller keeps the graph from changing for far less time than during save.
+     *
+     * @param nodeDictionary      the node dictionary of the graph
+     * @param predicateDictionary the predicate dictionary of the graph
+     * @param tripleIndex         the triple index of the graph
+     * @return the copied contents
+     * @throws PersistenceException if the graph has too many triples to copy
+     */
+    static Image capture(IdentifierDictionary<Node> nodeDictionary, IdentifierDictionary<Predicate> predicateDictionary,
+            TripleIndex tripleIndex) throws PersistenceException {
+        long tripleCount = tripleIndex.size();
+        if (tripleCount > Integer.MAX_VALUE / 3) {
+            throw new PersistenceException("Too many triples to copy for a snapshot: " + tripleCount);
+        }
+        int[] nodeIds = nodeDictionary.ids();
+        int[] nodeIndexById = new int[maxId(nodeIds) + 1];
+        Node[] nodes = new Node[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodes[i] = nodeDictionary.get(nodeIds[i]);
+            nodeIndexById[nodeIds[i]] = i;
+        }
+        int[] predicateIds = predicateDictionary.ids();
+        int[] predicateIndexById = new int[maxId(predicateIds) + 1];
+        Predicate[] predicates = new Predicate[predicateIds.length];
+        for (int i = 0; i < predicateIds.length; i++) {
+            predicates[i] = predicateDictionary.get(predicateIds[i]);
+            predicateIndexById[predicateIds[i]] = i;
+        }
+        int[] triples = new int[(int) tripleCount * 3];
+        long[] createDates = new long[(int) tripleCount];
+        int count = 0;
+        for (EncodedTriple triple : tripleIndex.all()) {
+            triples[count * 3] = nodeIndexById[triple.subject];
+            triples[count * 3 + 1] = predicateIndexById[triple.predicate];
+            triples[count * 3 + 2] = nodeIndexById[triple.object];
+            createDates[count++] = triple.createDate;
+        }
+        return new Image(nodes, predicates, triples, createDates);
+    }
+
+    /**
+     * Writes a snapshot of copied contents to the specified file, like save.
+     *
+     * @param file  the file to write
+     * @param image the contents returned by capture
+     * @throws PersistenceException if the snapshot cannot be written
+     */
+    static void save(Path file, Image image) throws PersistenceException {
+        writeFile(file, out -> {
+            out.writeInt(image.nodes.length);
+            for (Node node : image.nodes) {
+                writeIdentifier(out, node.getIdentifier(), node.getCreateDate());
+            }
+            out.writeInt(image.predicates.length);
+            for (Predicate predicate : image.predicates) {
+                writeIdentifier(out, predicate.getIdentifier(), predicate.getCreateDate());
+            }
+            out.writeLong(image.createDates.length);
+            for (int i = 0; i < image.createDates.length; i++) {
+                out.writeInt(image.triples[i * 3]);
+                out.writeInt(image.triples[i * 3 + 1]);
+                out.writeInt(image.triples[i * 3 + 2]);
+                out.writeLong(image.createDates[i]);
+            }
+        });
+    }
+
+    /**
+     * Writes the header, the contents, and the checksum to a temporary file next to the specified
+     * one, syncs it, and moves it into place.
+     */
+    private static void writeFile(Path file, Contents contents) throws PersistenceException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+                 OutputStream fileOut = Channels.newOutputStream(channel)) {
+                CRC32C checksum = new CRC32C();
+                DataOutputStream out = new DataOutputStream(
+                        new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 20), checksum));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                contents.write(out);
+
+                // The checksum itself is not part of the checksummed bytes
+                out.flush();
+                new DataOutputStream(fileOut).writeLong(checksum.getValue());
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // The original error is the one worth reporting
+                }
+            }
+            throw new PersistenceException("Error writing snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the dictionary and triple sections of a snapshot.
+     */
+    private interface Contents {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The contents of a graph copied by capture: the Nodes and Predicates in snapshot order, and
+     * the triples as subject, predicate, and object positions in those orders.
+     */
+    static final class Image {
+        final Node[] nodes;
+        final Predicate[] predicates;
+        final int[] triples;
+        final long[] createDates;
+
+        Image(Node[] nodes, Predicate[] predicates, int[] triples, long[] createDates) {
+            this.nodes = nodes;
+            this.predicates = predicates;
+            this.triples = triples;
+            this.createDates = createDates;
+        }
+    }
+
+    /**
+     * Loads a snapshot into empty dictionaries and an empty index. The file is memory-mapped and
+     * its checksum verified before anything is added to the graph.
+     *
+     * @param file                the file to read
+     * @param nodeDictionary      the empty node dictionary to fill
+     * @param predicateDictionary the empty predicate dictionary to fill
+     * @param tripleIndex         the empty triple index to fill
+     * @throws PersistenceException if the file cannot be read, is not a snapshot, has an
+     *                              unsupported version, or fails the checksum
+     */
+    static void load(Path file, IdentifierDictionary<Node> nodeDictionary,
+            IdentifierDictionary<Predicate> predicateDictionary, TripleIndex tripleIndex) throws PersistenceException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            if (in.length < 2 * Integer.BYTES + CHECKSUM_SIZE || in.getInt() != MAGIC) {
+                throw new PersistenceException("Not a knowledge graph snapshot: " + file);
+            }
+            int formatVersion = in.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new PersistenceException("Unsupported snapshot version " + formatVersion + ": " + file);
+            }
+            verifyChecksum(channel, in.length, file);
+
+            int nodeCount = in.getInt();
+            int[] nodeIds = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                long createDate = in.getLong();
+                String identifier = in.getString();
+                nodeIds[i] = nodeDictionary.intern(identifier, id -> new Node(id, createDate));
+            }
+
+            int predicateCount = in.getInt();
+            int[] predicateIds = new int[predicateCount];
+            for (int i = 0; i < predicateCount; i++) {
+                long createDate = in.getLong();
+                String identifier = in.getString();
+                predicateIds[i] = predicateDictionary.intern(identifier, id -> new Predicate(id, createDate));
+            }
+
+            long tripleCount = in.getLong();
+            for (long i = 0; i < tripleCount; i++) {
+                int subject = in.getInt();
+                int predicate = in.getInt();
+                int object = in.getInt();
+                long createDate = in.getLong();
+                tripleIndex.add(new EncodedTriple(nodeIds[subject], predicateIds[predicate], nodeIds[object], createDate));
+            }
+        } catch (IOException | RuntimeException e) {
+            // A truncated or corrupt file that slipped past the checksum shows up as an index error
+            throw new PersistenceException("Error reading snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeIdentifier(DataOutputStream out, String identifier, long createDate) throws IOException {
+        byte[] bytes = identifier.getBytes(StandardCharsets.UTF_8);
+        out.writeLong(createDate);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int maxId(int[] sortedIds) {
+        return sortedIds.length == 0 ? -1 : sortedIds[sortedIds.length - 1];
+    }
+
+    /**
+     * Computes the CRC32C of everything before the trailing checksum and compares it with the
+     * stored value.
+     */
+    private static void verifyChecksum(FileChannel channel, long length, Path file) throws IOException, PersistenceException {
+        long dataLength = length - CHECKSUM_SIZE;
+        CRC32C checksum = new CRC32C();
+        for (long position = 0; position < dataLength; position += WINDOW_SIZE) {
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, dataLength - position)));
+        }
+        ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, dataLength, CHECKSUM_SIZE);
+        if (stored.getLong() != checksum.getValue()) {
+            throw new PersistenceException("Snapshot checksum mismatch: " + file);
+        }
+    }
+
+    /**
+     * Sequential reader over a memory-mapped file. The file is mapped one window at a time, so
+     * snapshots larger than the 2 GB limit of a single mapping can be read.
+     */
+    private static class MappedInput {
+        private final FileChannel channel;
+        private final long length;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedInput(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+            this.window = map(0, Math.min(WINDOW_SIZE, length));
+        }
+
+        int getInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(Long.BYTES);
+            return window.getLong();
+        }
+
+        String getString() throws IOException {
+            int byteCount = getInt();
+            ensure(byteCount);
+            byte[] bytes = new byte[byteCount];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Remaps the window at the current position if fewer than byteCount bytes remain in it.
+         */
+        private void ensure(int byteCount) throws IOException {
+            if (window.remaining() >= byteCount) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (byteCount < 0 || position + byteCount > length) {
+                throw new IOException("Unexpected end of snapshot at offset " + position);
+            }
+            window = map(position, Math.min(Math.max(WINDOW_SIZE, byteCount), length - position));
+        }
+
+        private MappedByteBuffer map(long position, long size) throws IOException {
+            windowStart = position;
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the cardinality statistics of the KnowledgeGraph. The statistics are maintained
+ * as triples are imported and removed, so taking a snapshot does not scan the triples.
+ *
+ * The degree histograms have one bucket per power of two: bucket k counts the Nodes whose
+ * degree is between 2^k and 2^(k+1) - 1, so bucket 0 holds degree 1, bucket 1 degrees 2 and 3,
+ * and so on. Nodes with degree 0 are not counted.
+ */
+public class GraphStatistics {
+    private final int tripleCount;
+    private final int distinctSubjects;
+    private final int distinctObjects;
+    private final long[] outDegreeHistogram;
+    private final long[] inDegreeHistogram;
+    private final List<PredicateStatistics> predicates;
+
+    /**
+     * Constructs a GraphStatistics snapshot.
+     *
+     * @param tripleCount        the number of triples in the graph
+     * @param distinctSubjects   the number of Nodes that are the subject of at least one triple
+     * @param distinctObjects    the number of Nodes that are the object of at least one triple
+     * @param outDegreeHistogram the histogram of the number of triples each Node is the subject of
+     * @param inDegreeHistogram  the histogram of the number of triples each Node is the object of
+     * @param predicates         the statistics of each Predicate in use, most used first
+     */
+    public GraphStatistics(int tripleCount, int distinctSubjects, int distinctObjects,
+            long[] outDegreeHistogram, long[] inDegreeHistogram, List<PredicateStatistics> predicates) {
+        this.tripleCount = tripleCount;
+        this.distinctSubjects = distinctSubjects;
+        this.distinctObjects = distinctObjects;
+        this.outDegreeHistogram = outDegreeHistogram.clone();
+        this.inDegreeHistogram = inDegreeHistogram.clone();
+        this.predicates = Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * Returns the number of triples in the graph.
+     *
+     * @return the number of triples
+     */
+    public int getTripleCount() {
+        return tripleCount;
+    }
+
+    /**
+     * Returns the number of Nodes that are the subject of at least one triple.
+     *
+     * @return the number of distinct subjects
+     */
+    public int getDistinctSubjects() {
+        return distinctSubjects;
+    }
+
+    /**
+     * Returns the number of Nodes that are the object of at least one triple.
+     *
+     * @return the number of distinct objects
+     */
+    public int getDistinctObjects() {
+        return distinctObjects;
+    }
+
+    /**
+     * Returns the number of Predicates used by at least one triple.
+     *
+     * @return the number of distinct predicates
+     */
+    public int getDistinctPredicates() {
+        return predicates.size();
+    }
+
+    /**
+     * Returns the out-degree histogram: bucket k counts the Nodes that are the subject of
+     * between 2^k and 2^(k+1) - 1 triples.
+     *
+     * @return a copy of the out-degree histogram
+     */
+    public long[] getOutDegreeHistogram() {
+        return outDegreeHistogram.clone();
+    }
+
+    /**
+     * Returns the in-degree histogram: bucket k counts the Nodes that are the object of
+     * between 2^k and 2^(k+1) - 1 triples.
+     *
+     * @return a copy of the in-degree histogram
+     */
+    public long[] getInDegreeHistogram() {
+        return inDegreeHistogram.clone();
+    }
+
+    /**
+     * Returns the statistics of each Predicate in use, ordered by triple count with the most
+     * used Predicate first, so hot Predicates are at the head of the list.
+     *
+     * @return the per-Predicate statistics
+     */
+    public List<PredicateStatistics> getPredicateStatistics() {
+        return predicates;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GraphStatistics{triples=%d, distinctSubjects=%d, distinctObjects=%d, distinctPredicates=%d, "
+                + "outDegreeHistogram=%s, inDegreeHistogram=%s}", tripleCount, distinctSubjects, distinctObjects,
+                predicates.size(), trimmed(outDegreeHistogram), trimmed(inDegreeHistogram));
+    }
+
+    // Drops the empty high buckets so the histogram prints compactly
+    private static String trimmed(long[] histogram) {
+        int length = histogram.length;
+        while (length > 0 && histogram[length - 1] == 0) {
+            length--;
+        }
+        return Arrays.toString(Arrays.copyOf(histogram, length));
+    }
+}
@@ -0,0 +1,128 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * IdentifierDictionary that keeps the values on the heap, in an array indexed by ID, and maps
+ * identifiers to IDs with a CaseFoldingMap.
+ *
+ * @param <T> the type of value stored for each identifier (Node or Predicate)
+ */
+final class HeapIdentifierDictionary<T> implements IdentifierDictionary<T> {
+
+    private final CaseFoldingMap<Integer> idsByIdentifier = new CaseFoldingMap<>();
+    // Replaced, never resized in place, so readers always see a fully populated array
+    private volatile Object[] valuesById = new Object[16];
+    private int nextId = 0;
+    // IDs of removed identifiers, reused by intern before nextId grows
+    private int[] freeIds = new int[0];
+    private int freeCount = 0;
+
+    /**
+     * Returns the ID of the specified identifier, or NOT_FOUND if it has not been interned.
+     *
+     * @param identifier the identifier to look up
+     * @return the ID of the identifier, or NOT_FOUND
+     */
+    @Override
+    public int lookup(String identifier) {
+        Integer id = idsByIdentifier.get(identifier);
+        return id == null ? NOT_FOUND : id;
+    }
+
+    /**
+     * Returns the ID of the specified identifier, interning it with a value created by the
+     * factory if it has not been seen before.
+     *
+     * @param identifier the identifier to intern
+     * @param factory    creates the value stored for a new identifier
+     * @return the ID of the identifier
+     */
+    @Override
+    public int intern(String identifier, Function<String, T> factory) {
+        Integer id = idsByIdentifier.get(identifier);
+        if (id != null) {
+            return id;
+        }
+        Object[] values = valuesById;
+        int newId;
+        if (freeCount > 0) {
+            newId = freeIds[--freeCount];
+        } else {
+            if (nextId == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            newId = nextId++;
+        }
+        values[newId] = factory.apply(identifier);
+        // Publish the value before the ID, so a reader that finds the ID also finds the value
+        valuesById = values;
+        idsByIdentifier.put(identifier, newId);
+        return newId;
+    }
+
+    /**
+     * Returns the value stored for the specified ID.
+     *
+     * @param id the ID returned by intern
+     * @return the value for the ID
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        return (T) valuesById[id];
+    }
+
+    /**
+     * Removes the identifier from the dictionary. Its ID is reused by a later intern; until then
+     * the value of the removed ID stays readable, because a concurrent reader may still hold a
+     * triple that refers to it.
+     *
+     * @param identifier the identifier to remove
+     */
+    @Override
+    public void remove(String identifier) {
+        Integer id = idsByIdentifier.remove(identifier);
+        if (id == null) {
+            return;
+        }
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Returns the IDs of all identifiers currently interned, in ascending order.
+     *
+     * @return the interned IDs
+     */
+    @Override
+    public int[] ids() {
+        return idsByIdentifier.unorderedValues().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Removes every identifier and restarts ID assignment from 0. Unlike remove, this does not
+     * keep the old values readable, so it must not run while readers hold IDs from this dictionary.
+     */
+    @Override
+    public void clear() {
+        idsByIdentifier.clear();
+        valuesById = new Object[16];
+        nextId = 0;
+        freeIds = new int[0];
+        freeCount = 0;
+    }
+
+    /**
+     * Returns the number of identifiers currently interned.
+     *
+     * @return the number of interned identifiers
+     */
+    @Override
+    public int size() {
+        return idsByIdentifier.size();
+    }
+}
@@ -0,0 +1,80 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * TripleIndex that keeps the SPO, POS, and OSP permutation indexes in concurrent skip lists on
+ * the heap. The three indexes share the same EncodedTriple instances, keeping memory linear in
+ * the number of triples, and adding or removing a triple is O(log n).
+ */
+final class HeapTripleIndex extends TripleIndex {
+
+    private final NavigableSet<EncodedTriple> spo = new ConcurrentSkipListSet<>(SPO_ORDER);
+    private final NavigableSet<EncodedTriple> pos = new ConcurrentSkipListSet<>(POS_ORDER);
+    private final NavigableSet<EncodedTriple> osp = new ConcurrentSkipListSet<>(OSP_ORDER);
+
+    @Override
+    EncodedTriple get(int subject, int predicate, int object) {
+        EncodedTriple key = EncodedTriple.pattern(subject, predicate, object);
+        EncodedTriple found = spo.ceiling(key);
+        return key.equals(found) ? found : null;
+    }
+
+    @Override
+    protected void addToIndexes(EncodedTriple triple) {
+        spo.add(triple);
+        pos.add(triple);
+        osp.add(triple);
+    }
+
+    @Override
+    protected boolean removeFromIndexes(EncodedTriple triple) {
+        if (!spo.remove(triple)) {
+            return false;
+        }
+        pos.remove(triple);
+        osp.remove(triple);
+        return true;
+    }
+
+    @Override
+    protected void clearIndexes() {
+        spo.clear();
+        pos.clear();
+        osp.clear();
+    }
+
+    @Override
+    NavigableSet<EncodedTriple> scan(int subject, int predicate, int object) {
+        boolean s = subject != EncodedTriple.WILDCARD;
+        boolean p = predicate != EncodedTriple.WILDCARD;
+        boolean o = object != EncodedTriple.WILDCARD;
+
+        if (s && p && o) {
+            EncodedTriple found = get(subject, predicate, object);
+            return found == null ? Collections.emptyNavigableSet() : spo.subSet(found, true, found, true);
+        } else if (s && p) {
+            return range(spo, subject, predicate, MIN_ID, subject, predicate, MAX_ID);
+        } else if (s && o) {
+            return range(osp, subject, MIN_ID, object, subject, MAX_ID, object);
+        } else if (s) {
+            return range(spo, subject, MIN_ID, MIN_ID, subject, MAX_ID, MAX_ID);
+        } else if (p && o) {
+            return range(pos, MIN_ID, predicate, object, MAX_ID, predicate, object);
+        } else if (p) {
+            return range(pos, MIN_ID, predicate, MIN_ID, MAX_ID, predicate, MAX_ID);
+        } else if (o) {
+            return range(osp, MIN_ID, MIN_ID, object, MAX_ID, MAX_ID, object);
+        }
+        return Collections.unmodifiableNavigableSet(spo);
+    }
+
+    private static NavigableSet<EncodedTriple> range(NavigableSet<EncodedTriple> index,
+            int fromSubject, int fromPredicate, int fromObject,
+            int toSubject, int toPredicate, int toObject) {
+        return index.subSet(EncodedTriple.pattern(fromSubject, fromPredicate, fromObject), true,
+                EncodedTriple.pattern(toSubject, toPredicate, toObject), true);
+    }
+}
@@ -0,0 +1,78 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.function.Function;
+
+/**
+ * Interns case-insensitive identifiers into dense int IDs. Each identifier is case-folded once,
+ * with CaseFoldingMap.fold, when it is interned, so repeated lookups hash the folded key instead
+ * of walking a TreeMap with compareToIgnoreCase. The first spelling seen for an identifier is the one kept in the value,
+ * matching the behavior of the previous TreeMap(String.CASE_INSENSITIVE_ORDER) based maps.
+ *
+ * Lookups are safe from any thread without locking. Calls to intern, remove, and clear must be
+ * serialized by the caller.
+ *
+ * @param <T> the type of value stored for each identifier (Node or Predicate)
+ */
+interface IdentifierDictionary<T> {
+
+    /** Returned by {@link #lookup(String)} when the identifier has not been interned. */
+    int NOT_FOUND = -2;
+
+    /**
+     * Returns the ID of the specified identifier, or NOT_FOUND if it has not been interned.
+     *
+     * @param identifier the identifier to look up
+     * @return the ID of the identifier, or NOT_FOUND
+     */
+    int lookup(String identifier);
+
+    /**
+     * Returns the ID of the specified identifier, interning it with a value created by the
+     * factory if it has not been seen before.
+     *
+     * @param identifier the identifier to intern
+     * @param factory    creates the value stored for a new identifier
+     * @return the ID of the identifier
+     */
+    int intern(String identifier, Function<String, T> factory);
+
+    /**
+     * Returns the value stored for the specified ID.
+     *
+     * @param id the ID returned by intern
+     * @return the value for the ID
+     */
+    T get(int id);
+
+    /**
+     * Removes the identifier from the dictionary. Its ID is reused by a later intern, so the
+     * dictionary only grows with the number of identifiers interned at once, not with the number
+     * ever interned. Until then the value of the removed ID stays readable, because a concurrent
+     * reader may still hold a triple that refers to it; such a reader must be retried if a write
+     * ran meanwhile, as KnowledgeGraph's optimistic reads are, since afterwards the ID may
+     * belong to another identifier.
+     *
+     * @param identifier the identifier to remove
+     */
+    void remove(String identifier);
+
+    /**
+     * Returns the IDs of all identifiers currently interned, in ascending order.
+     *
+     * @return the interned IDs
+     */
+    int[] ids();
+
+    /**
+     * Removes every identifier and restarts ID assignment from 0. Unlike remove, this does not
+     * keep the old values readable, so it must not run while readers hold IDs from this dictionary.
+     */
+    void clear();
+
+    /**
+     * Returns the number of identifiers currently interned.
+     *
+     * @return the number of interned identifiers
+     */
+    int size();
+}
@@ -1,58 +1,265 @@
 package cscie97.asn1.knowledge.engine;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Handles importing triples from a file into the knowledge graph.
  */
 public class Importer {
+
+    // Target size of each chunk parsed by importTripleFileParallel
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final KnowledgeGraph knowledgeGraph;
+
+    /**
+     * Constructs an Importer that imports into the default knowledge graph.
+     */
+    public Importer() {
+        this(KnowledgeGraph.getInstance());
+    }
+
+    /**
+     * Constructs an Importer that imports into the specified knowledge graph.
+     *
+     * @param knowledgeGraph the graph triples are imported into, for example a named graph
+     */
+    public Importer(KnowledgeGraph knowledgeGraph) {
+        this.knowledgeGraph = knowledgeGraph;
+    }
+
     /**
      * Reads triples from the specified file and processes each line.
      * Each line must contain at least three whitespace-separated words: subject, predicate, and object.
+     * The file is read as UTF-8, and may be gzip-compressed, in which case it is decompressed
+     * as it is read.
      *
      * @param fileName the name of the file containing triples
      * @throws Exception if an error occurs while reading the file or parsing a line
      */
     public void importTripleFile(String fileName) throws ImportException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+        TripleTokenizer tokenizer = new TripleTokenizer();
+        try (BufferedReader reader = TextFileReader.open(fileName)) {
             String line;
             int lineNumber = 0;
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
 
-                // Strip BOM character
-                // (I don't know why, but this was causing me issues)
-                if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
-                    line = line.substring(1);
+                if (!parseTripleLine(tokenizer, line, 0, line.length(), lineNumber)) {
+                    continue;
                 }
 
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
+                knowledgeGraph.importTriple(tokenizer.subject(), tokenizer.predicate(), tokenizer.object());
+            }
+        } catch (IOException e) {
+            throw new ImportException("Error reading file: " + fileName);
+        }
+    }
+
+    /**
+     * Reads triples from the specified file using all available processors.
+     *
+     * @param fileName the name of the file containing triples
+     * @throws ImportException if an error occurs while reading the file or parsing a line
+     * @see #importTripleFileParallel(String, int)
+     */
+    public void importTripleFileParallel(String fileName) throws ImportException {
+        importTripleFileParallel(fileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads triples from the specified file in parallel. The file is memory-mapped and split into
+     * chunks on line boundaries, the chunks are parsed on a fork-join pool, and the parsed triples
+     * are merged into the knowledge graph in file order. The triples accepted and the
+     * ImportException reported for an invalid line, including its line number, are the same as
+     * for importTripleFile. A gzip-compressed file cannot be split without inflating it, so it is
+     * imported with importTripleFile instead.
+     *
+     * @param fileName    the name of the file containing triples
+     * @param parallelism the number of threads used to parse chunks
+     * @throws ImportException if an error occurs while reading the file or parsing a line
+     */
+    public void importTripleFileParallel(String fileName, int parallelism) throws ImportException {
+        try {
+            if (TextFileReader.isGzip(fileName)) {
+                importTripleFile(fileName);
+                return;
+            }
+        } catch (IOException e) {
+            throw new ImportException("Error reading file: " + fileName);
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            List<long[]> chunks = splitIntoChunks(channel);
+
+            // Keep a bounded number of chunks in flight so the parsed triples waiting to be
+            // merged never hold more than a few chunks' worth of memory
+            int window = Math.max(2, parallelism * 2);
+            Deque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+            int nextChunk = 0;
+            int linesBefore = 0;
+            while (nextChunk < chunks.size() || !inFlight.isEmpty()) {
+                while (nextChunk < chunks.size() && inFlight.size() < window) {
+                    long[] bounds = chunks.get(nextChunk++);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bounds[0], bounds[1] - bounds[0]);
+                    inFlight.addLast(pool.submit(() -> parseChunk(buffer)));
                 }
-                if (line.charAt(line.length() - 1) != '.') {
-                    throw new ImportException("Triple must end with a '.' at line " + lineNumber + ": " + line);
+
+                ParsedChunk chunk = inFlight.removeFirst().get();
+                knowledgeGraph.importTriples(chunk.triples);
+                if (chunk.invalidLine != null) {
+                    // Re-parse the invalid line with its line number in the whole file,
+                    // which throws the same ImportException importTripleFile would
+                    parseTripleLine(new TripleTokenizer(), chunk.invalidLine, 0, chunk.invalidLine.length(),
+                            linesBefore + chunk.invalidLineNumber);
                 }
-                line = line.substring(0, line.length() - 1).trim();
+                linesBefore += chunk.lineCount;
+            }
+        } catch (IOException e) {
+            throw new ImportException("Error reading file: " + fileName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImportException("Interrupted while importing file: " + fileName);
+        } catch (ExecutionException e) {
+            throw new ImportException("Error parsing file: " + fileName + ": " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                String[] parts = line.trim().split("\\s+");
-                if (parts.length != 3) {
-                    throw new ImportException("Invalid triple format at line " + lineNumber + ": " + line);
+    /**
+     * Validates a single line of a triple file and tokenizes it into its subject, predicate, and object.
+     *
+     * @param tokenizer  the tokenizer that holds the terms of the line when this method returns true
+     * @param text       the text containing the line
+     * @param start      the offset of the first character of the line
+     * @param end        the offset just past the last character of the line
+     * @param lineNumber the line number reported if the line is invalid
+     * @return true if the line is a triple, or false if the line is blank
+     * @throws ImportException if the line is not a valid triple
+     */
+    static boolean parseTripleLine(TripleTokenizer tokenizer, CharSequence text, int start, int end,
+            int lineNumber) throws ImportException {
+        switch (tokenizer.tokenize(text, start, end)) {
+            case BLANK:
+                return false;
+            case MISSING_PERIOD:
+                throw new ImportException("Triple must end with a '.' at line " + lineNumber + ": " + tokenizer.line());
+            case WRONG_TERM_COUNT:
+                throw new ImportException("Invalid triple format at line " + lineNumber + ": " + tokenizer.body());
+            default:
+                break;
+        }
+
+        if (tokenizer.hasWildcard()) {
+            throw new ImportException("Triples cannot contain '?' at line " + lineNumber + ": " + tokenizer.body());
+        }
+        return true;
+    }
+
+    /**
+     * Splits the file into chunks of roughly CHUNK_SIZE bytes. Every chunk except the last ends
+     * just after a newline, so no line spans two chunks.
+     *
+     * @param channel the file to split
+     * @return the start (inclusive) and end (exclusive) offset of each chunk
+     * @throws IOException if the file cannot be read
+     */
+    private static List<long[]> splitIntoChunks(FileChannel channel) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + CHUNK_SIZE);
+            // Advance the end of the chunk to just past the next newline
+            boolean found = end == size;
+            while (!found) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
                 }
-                String subject = parts[0].trim();
-                String predicate = parts[1].trim();
-                String object = parts[2].trim();
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        end += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    end += read;
+                }
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line too long to import starting at offset " + start);
+            }
+            chunks.add(new long[] {start, end});
+            start = end;
+        }
+        return chunks;
+    }
 
-                if(subject.equals("?") || predicate.equals("?") || object.equals("?")) {
-                    throw new ImportException("Triples cannot contain '?' at line " + lineNumber + ": " + line);
+    /**
+     * Decodes and parses one chunk of the file. Parsing stops at the first invalid line, which
+     * is recorded so the caller can report it with its line number in the whole file.
+     *
+     * @param buffer the bytes of the chunk
+     * @return the parsed chunk
+     */
+    private static ParsedChunk parseChunk(ByteBuffer buffer) {
+        ParsedChunk chunk = new ParsedChunk();
+        TripleTokenizer tokenizer = new TripleTokenizer();
+        CharSequence text = StandardCharsets.UTF_8.decode(buffer);
+        int length = text.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            // Lines end with \n, \r, or \r\n, as with BufferedReader.readLine
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            chunk.lineCount++;
+            try {
+                if (parseTripleLine(tokenizer, text, lineStart, lineEnd, chunk.lineCount)) {
+                    chunk.triples.add(new String[] {tokenizer.subject(), tokenizer.predicate(), tokenizer.object()});
                 }
+            } catch (ImportException e) {
+                chunk.invalidLine = text.subSequence(lineStart, lineEnd).toString();
+                chunk.invalidLineNumber = chunk.lineCount;
+                return chunk;
+            }
 
-                KnowledgeGraph.getInstance().importTriple(subject, predicate, object);
+            lineStart = lineEnd + 1;
+            if (lineEnd < length && text.charAt(lineEnd) == '\r' && lineStart < length && text.charAt(lineStart) == '\n') {
+                lineStart++;
             }
-        } catch (IOException e) {
-            throw new ImportException("Error reading file: " + fileName);
         }
+        return chunk;
+    }
+
+    /**
+     * The result of parsing one chunk of a triple file.
+     */
+    private static class ParsedChunk {
+        private final List<String[]> triples = new ArrayList<>();
+        private int lineCount;
+        private String invalidLine;
+        private int invalidLineNumber;
     }
 }
@@ -1,38 +1,214 @@
 package cscie97.asn1.knowledge.engine;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class KnowledgeGraph {
 
-    // Singleton instance
-    private static KnowledgeGraph instance;
+    /**
+     * The name of the graph returned by getInstance().
+     */
+    public static final String DEFAULT_GRAPH_NAME = "default";
+
+    /* Note: Each named graph has its own dictionaries, indexes, query cache, and write lock, so
+       queries and writes on one graph never scan or wait for the triples of another. Names are
+       case-insensitive like identifiers. Dropping a graph only unregisters it; its storage is
+       reclaimed once nothing refers to it, so the drop costs the same for any graph size.
+       */
+    private static final Map<String, KnowledgeGraph> graphs = new CaseFoldingMap<>();
+
+    private static final int DEFAULT_QUERY_CACHE_CAPACITY = 1024;
+    private static final int DEFAULT_MAX_CACHED_RESULT_SIZE = 1000;
+    // Optimistic attempts a reader makes before waiting for a running write section to finish
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 64;
+
+    /* Note: Nodes and Predicates are interned into dictionaries that case-fold each identifier once
+       and assign it a dense int ID. Triples are stored as EncodedTriples holding only those IDs, and
+       Triple objects are materialized when a query returns them. This keeps the per-triple heap cost
+       to a few ints instead of several Strings, while lookups stay case-insensitive.
+       The triples themselves live in the SPO/POS/OSP permutation indexes of tripleIndex, which
+       answer any combination of "?" wildcards with one range scan.
+       The dictionaries and indexes can be read by any number of threads without locking; every
+       mutation takes writeLock, so writers are applied one at a time. The ID of a removed
+       identifier is reused, so a reader holding IDs must run optimistically as described below.
+       Each mutation, or TripleBatch, is one write section: version is odd while a write section is
+       running and even otherwise. executeQuery and executeConjunctiveQuery read optimistically and
+       retry if version changed meanwhile, so they see each write section entirely or not at all.
+       Only a reader that keeps colliding with writers falls back to waiting for writeLock.
+       */
+    private final IdentifierDictionary<Node> nodeDictionary;
+    private final IdentifierDictionary<Predicate> predicateDictionary;
+    private final TripleIndex tripleIndex;
+    // Versions of removed triples, or null unless enabled by setTripleHistoryEnabled
+    private volatile TripleHistory tripleHistory;
+    // Seconds a version is kept after its removal, or 0 to keep it until discarded explicitly
+    private long tripleHistoryRetention;
+    private long nextTripleHistoryPrune;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /* Note: Results of executeQuery are kept in a bounded LRU cache. Every change to the triple
+       index invalidates only the eight patterns the changed triple matches, so results for
+       unrelated patterns stay cached across writes. A result is only cached if version shows no
+       write section ran while it was computed.
+       */
+    private volatile QueryCache queryCache = new QueryCache(DEFAULT_QUERY_CACHE_CAPACITY, DEFAULT_MAX_CACHED_RESULT_SIZE);
+
+    /* Note: Fully bound queries are first checked against a counting Bloom filter of the triple
+       index, so most queries for absent triples return without reading the cache or the index.
+       The filter is doubled and refilled from the index whenever the graph outgrows it.
+       */
+    private static final double DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final int INITIAL_BLOOM_FILTER_CAPACITY = 1024;
+    private volatile TripleBloomFilter tripleFilter = new TripleBloomFilter(INITIAL_BLOOM_FILTER_CAPACITY,
+            DEFAULT_BLOOM_FILTER_FALSE_POSITIVE_RATE);
+    private volatile long version;
+
+    /* Note: When the mutation log is enabled, every mutation is appended to it under writeLock
+       before it is applied, so the log order is the apply order. The log lives in logDirectory
+       next to the checkpoint snapshot; both are replaced together by checkpoint().
+       A checkpoint that falls due after checkpointInterval mutations runs on a background thread
+       instead: it copies the graph and rotates the log into a sealed file under writeLock, and
+       writes the snapshot and deletes the sealed file after releasing it. Recovery replays the
+       sealed file, if there is one, before the log. checkpointLock keeps checkpoints from
+       replacing each other's files out of order; it is only ever taken while holding writeLock.
+       */
+    private static final String CHECKPOINT_FILE_NAME = "knowledge.snapshot";
+    private static final String LOG_FILE_NAME = "knowledge.log";
+    private static final String SEALED_LOG_FILE_NAME = "knowledge.log.sealed";
+    private MutationLog mutationLog;
+    private Path logDirectory;
+    private long checkpointInterval;
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private volatile boolean backgroundCheckpointRunning;
 
-    /* Note: Using TreeMap allows for automatic handling of case-insensitive keys
-       with the tradeoff that put operations are now O(log n) instead of O(1) for a HashMap.
-       I believe this the correct tradeoff to simplify the implementation of the application.
+    /* Note: Subscriptions are copy-on-write under writeLock, so recording a change costs one
+       volatile read while nobody subscribes. Changes matching a subscription are collected in its
+       pending list while a write section runs and queued together when the section ends, so an
+       observer sees all of a mutation or TripleBatch or none of it. Patterns are matched by ID;
+       a subscription's resolved IDs stay valid until an identifier is removed from a dictionary.
        */
-    private final Map<String, Node> nodeMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private final Map<String, Predicate> predicateMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private final Map<String, Triple> tripleMap = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private final Map<String, Set<Triple>> queryMapSet = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private static final int DEFAULT_SUBSCRIPTION_QUEUE_CAPACITY = 4096;
+    private static final int DEFAULT_SUBSCRIPTION_BATCH_SIZE = 256;
+    private volatile TripleSubscription[] subscriptions = new TripleSubscription[0];
+    private long dictionaryRemovals;
+
+    /**
+     * System property that selects off-heap storage when set to "true". The identifier
+     * dictionaries and the triple index are then kept in direct buffers, so the heap, and with it
+     * GC pause times, no longer grow with the size of the graph. Queries materialize Nodes,
+     * Predicates, and Triples on demand, so getNode may return distinct objects for one
+     * identifier; they are equal under equals and hashCode, but not identical.
+     */
+    public static final String OFF_HEAP_STORAGE_PROPERTY = "cscie97.knowledge.offHeapStorage";
+
+    private final String name;
 
     // Private constructor to prevent instantiation
-    private KnowledgeGraph() {}
+    private KnowledgeGraph(String name) {
+        this.name = name;
+        if (Boolean.getBoolean(OFF_HEAP_STORAGE_PROPERTY)) {
+            nodeDictionary = new OffHeapIdentifierDictionary<>(Node::getIdentifier, Node::getCreateDate, Node::new);
+            predicateDictionary = new OffHeapIdentifierDictionary<>(Predicate::getIdentifier, Predicate::getCreateDate,
+                    Predicate::new);
+            tripleIndex = new OffHeapTripleIndex();
+        } else {
+            nodeDictionary = new HeapIdentifierDictionary<>();
+            predicateDictionary = new HeapIdentifierDictionary<>();
+            tripleIndex = new HeapTripleIndex();
+        }
+    }
+
+    /**
+     * Returns the default KnowledgeGraph.
+     *
+     * @return the graph named DEFAULT_GRAPH_NAME
+     */
+    public static KnowledgeGraph getInstance() {
+        return getInstance(DEFAULT_GRAPH_NAME);
+    }
+
+    /**
+     * Returns the KnowledgeGraph with the specified name, creating an empty one if there is none.
+     * Names are case-insensitive.
+     *
+     * @param name the name of the graph
+     * @return the graph with the specified name
+     */
+    public static synchronized KnowledgeGraph getInstance(String name) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Graph name must not be empty");
+        }
+        return graphs.computeIfAbsent(name, KnowledgeGraph::new);
+    }
+
+    /**
+     * Creates a graph that is not registered under its name, such as a shard of a
+     * ShardedKnowledgeGraph.
+     *
+     * @param name the name of the graph
+     * @return a new, empty graph
+     */
+    static KnowledgeGraph createUnregistered(String name) {
+        return new KnowledgeGraph(name);
+    }
+
+    /**
+     * Returns the names of the existing graphs.
+     *
+     * @return the graph names in case-insensitive order
+     */
+    public static synchronized List<String> getGraphNames() {
+        return new ArrayList<>(graphs.keySet());
+    }
 
     /**
-     * Returns the singleton instance of KnowledgeGraph.
+     * Drops the graph with the specified name. The next getInstance call for the name returns a
+     * new, empty graph. The dropped graph's subscriptions are cancelled and its mutation log, if
+     * enabled, is closed, but its contents are not cleared: they are reclaimed together once no
+     * Importer, QueryEngine, or other holder refers to the graph, so dropping takes constant time
+     * however many triples the graph holds.
      *
-     * @return the singleton instance
+     * @param name the name of the graph
+     * @return true if the graph existed
+     * @throws PersistenceException if the mutation log of the graph cannot be closed; the graph is
+     *                              dropped nonetheless
      */
-    public static synchronized KnowledgeGraph getInstance() {
-        if (instance == null) {
-            instance = new KnowledgeGraph();
+    public static boolean dropGraph(String name) throws PersistenceException {
+        KnowledgeGraph dropped;
+        synchronized (KnowledgeGraph.class) {
+            dropped = graphs.remove(name);
+        }
+        if (dropped == null) {
+            return false;
         }
-        return instance;
+        for (TripleSubscription subscription : dropped.subscriptions) {
+            subscription.cancel();
+        }
+        dropped.disableMutationLog();
+        return true;
+    }
+
+    /**
+     * Returns the name of the graph.
+     *
+     * @return the name the graph was created with
+     */
+    public String getName() {
+        return name;
     }
 
     /**
@@ -42,8 +218,20 @@ public class KnowledgeGraph {
      * @return the Node with the specified identifier
      */
     public Node getNode(String identifier) {
-        nodeMap.putIfAbsent(identifier, new Node(identifier));
-        return nodeMap.get(identifier);
+        // Looked up inside a read, since a write section may remove the identifier and reuse its ID
+        Node existing = readConsistently(() -> {
+            int id = nodeDictionary.lookup(identifier);
+            return id == IdentifierDictionary.NOT_FOUND ? null : nodeDictionary.get(id);
+        });
+        if (existing != null) {
+            return existing;
+        }
+        writeLock.lock();
+        try {
+            return nodeDictionary.get(nodeDictionary.intern(identifier, Node::new));
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -53,14 +241,26 @@ public class KnowledgeGraph {
      * @return the Predicate with the specified identifier
      */
     public Predicate getPredicate(String identifier) {
-        predicateMap.putIfAbsent(identifier, new Predicate(identifier));
-        return predicateMap.get(identifier);
+        // Looked up inside a read, since a write section may remove the identifier and reuse its ID
+        Predicate existing = readConsistently(() -> {
+            int id = predicateDictionary.lookup(identifier);
+            return id == IdentifierDictionary.NOT_FOUND ? null : predicateDictionary.get(id);
+        });
+        if (existing != null) {
+            return existing;
+        }
+        writeLock.lock();
+        try {
+            return predicateDictionary.get(predicateDictionary.intern(identifier, Predicate::new));
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
      * Returns the Triple with the specified subject, predicate, and object. If it does not exist,
      * creates a new Triple, stores it, and returns it. The Triple is uniquely identified by the
-     * concatenation of the subject, predicate, and object identifiers separated by spaces.
+     * subject, predicate, and object identifiers, compared case-insensitively.
      *
      * @param subject   the subject Node of the Triple
      * @param predicate the Predicate of the Triple
@@ -68,33 +268,61 @@ public class KnowledgeGraph {
      * @return the Triple with the specified subject, predicate, and object
      */
     public Triple getTriple(Node subject, Predicate predicate, Node object) {
-        Triple tripleToAdd = new Triple(subject, predicate, object);
-        tripleMap.putIfAbsent(tripleToAdd.getIdentifier(), tripleToAdd);
-        return tripleMap.get(tripleToAdd.getIdentifier());
+        Triple triple;
+        long sequence;
+        beginWrite();
+        try {
+            sequence = logMutation(MutationLog.IMPORT_TRIPLE, subject.getIdentifier(), predicate.getIdentifier(),
+                    object.getIdentifier());
+            triple = toTriple(storeTriple(subject.getIdentifier(), predicate.getIdentifier(), object.getIdentifier()));
+            checkpointIfDue();
+        } finally {
+            endWrite();
+        }
+        awaitDurable(sequence);
+        return triple;
     }
 
     /**
      * Imports a triple into the knowledge graph using the provided subject, predicate, and object identifiers.
-     * This method updates the nodeMap, predicateMap, tripleMap, and queryMapSet accordingly.
+     * This method updates the node and predicate dictionaries and the triple index accordingly.
      *
      * @param subject   the identifier for the subject Node
      * @param predicate the identifier for the Predicate
      * @param object    the identifier for the object Node
      */
     public void importTriple(String subject, String predicate, String object) {
-        Node subjectNode = getNode(subject);
-        Predicate predicateObject = getPredicate(predicate);
-        Node objectNode = getNode(object);
-        Triple triple = getTriple(subjectNode, predicateObject, objectNode);
+        long sequence;
+        beginWrite();
+        try {
+            sequence = logMutation(MutationLog.IMPORT_TRIPLE, subject, predicate, object);
+            storeTriple(subject, predicate, object);
+            checkpointIfDue();
+        } finally {
+            endWrite();
+        }
+        awaitDurable(sequence);
+    }
 
-        addPotentialQueryToSet(triple.getIdentifier(), triple);
-        addPotentialQueryToSet(subjectNode.getIdentifier() + " " + predicateObject.getIdentifier() + " ?.", triple);
-        addPotentialQueryToSet(subjectNode.getIdentifier() + " ? " + objectNode.getIdentifier() + ".", triple); 
-        addPotentialQueryToSet(subjectNode.getIdentifier() + " ? ?.", triple);
-        addPotentialQueryToSet("? " + predicateObject.getIdentifier() + " " + objectNode.getIdentifier() + ".", triple);
-        addPotentialQueryToSet("? " + predicateObject.getIdentifier() + " ?.", triple);
-        addPotentialQueryToSet("? ? " + objectNode.getIdentifier() + ".", triple);
-        addPotentialQueryToSet("? ? ?.", triple);
+    /**
+     * Imports a batch of triples into the knowledge graph, in order. Used by the Importer to
+     * merge a parsed chunk of a triple file in one call.
+     *
+     * @param triples the triples to import, each an array of subject, predicate, and object identifiers
+     */
+    public void importTriples(List<String[]> triples) {
+        long sequence = 0;
+        beginWrite();
+        try {
+            for (String[] triple : triples) {
+                sequence = logMutation(MutationLog.IMPORT_TRIPLE, triple[0], triple[1], triple[2]);
+                storeTriple(triple[0], triple[1], triple[2]);
+            }
+            checkpointIfDue();
+        } finally {
+            endWrite();
+        }
+        awaitDurable(sequence);
     }
 
     /**
@@ -108,47 +336,1104 @@ public class KnowledgeGraph {
      * @return a set of Triples matching the query pattern, or an empty set if none are found
      */
     public Set<Triple> executeQuery(String subject, String predicate, String object) {
-        String queryKey = subject + " " + predicate + " " + object + ".";
-        return queryMapSet.getOrDefault(queryKey, java.util.Collections.emptySet());
+        // The filter outcome of the attempt that returns, counted once after any retries
+        FilterLookup lookup = new FilterLookup();
+        Set<Triple> found = readConsistently(() -> {
+            lookup.filter = null;
+            long computedVersion = version;
+            // Encoded inside the read, since a write section may remove and re-intern an identifier
+            EncodedTriple pattern = encodeQuery(subject, predicate, object);
+            if (pattern == null) {
+                // An identifier that was never imported cannot match anything
+                return Collections.<Triple>emptySet();
+            }
+            TripleBloomFilter filter = isFullyBound(pattern) ? tripleFilter : null;
+            lookup.filter = filter;
+            lookup.negative = filter != null && !filter.mightContain(pattern);
+            if (lookup.negative) {
+                return Collections.<Triple>emptySet();
+            }
+            QueryCache cache = queryCache;
+            Set<Triple> results = cache.get(pattern);
+            if (results == null) {
+                Set<Triple> matches = new HashSet<>();
+                for (EncodedTriple triple : tripleIndex.scan(pattern.subject, pattern.predicate, pattern.object)) {
+                    matches.add(toTriple(triple));
+                }
+                results = Collections.unmodifiableSet(matches);
+                if ((computedVersion & 1) == 0) {
+                    cache.put(pattern, results, computedVersion, () -> version);
+                }
+            }
+            lookup.falsePositive = results.isEmpty();
+            return results;
+        });
+        if (lookup.filter != null) {
+            lookup.filter.recordLookup(lookup.negative, lookup.falsePositive);
+        }
+        return found;
     }
 
     /**
-     * Adds the specified triple to the set associated with the given identifier in the query map.
-     * If the set does not exist, it is created and added to the map.
+     * The Bloom filter outcome of one attempt of a read.
+     */
+    private static final class FilterLookup {
+        TripleBloomFilter filter;
+        boolean negative;
+        boolean falsePositive;
+    }
+
+    /**
+     * Replaces the query result cache with an empty cache of the specified size.
      *
-     * @param identifier the query pattern identifier
-     * @param triple     the Triple to add to the set
+     * @param capacity      the maximum number of query results cached; 0 disables the cache
+     * @param maxResultSize query results with more Triples than this are not cached
      */
-    private void addPotentialQueryToSet(String identifier, Triple triple) {
-        queryMapSet.putIfAbsent(identifier, new java.util.HashSet<>());
-        Set<Triple> querySet = queryMapSet.get(identifier);
-        querySet.add(triple);
+    public void configureQueryCache(int capacity, int maxResultSize) {
+        writeLock.lock();
+        try {
+            queryCache = new QueryCache(capacity, maxResultSize);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
-     * Remove a single Triple from the internal maps and query sets.
-     * This updates tripleMap and removes the triple from any query set that
-     * referenced it. Empty query sets are removed.
+     * Replaces the Bloom filter checked by fully bound queries with one for the specified
+     * false-positive rate, filled from the current triples. A lower rate answers more queries
+     * for absent triples without reading the triple index, at about 4.8 bits more per triple
+     * for each tenfold reduction.
      *
-     * @param triple the Triple to remove
+     * @param falsePositiveRate the fraction of absent triples the filter lets through, between 0
+     *                          and 1; 0 disables the filter
      */
-    private void removeTriple(Triple triple) {
-        if (triple == null) return;
-        // remove from tripleMap
-        tripleMap.remove(triple.getIdentifier());
-
-        // remove from all query sets; collect empty keys to remove afterwards
-        List<String> emptyKeys = new ArrayList<>();
-        for (Map.Entry<String, Set<Triple>> e : queryMapSet.entrySet()) {
-            Set<Triple> set = e.getValue();
-            if (set.remove(triple)) {
-                if (set.isEmpty()) {
-                    emptyKeys.add(e.getKey());
+    public void configureBloomFilter(double falsePositiveRate) {
+        if (!(falsePositiveRate >= 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be at least 0 and below 1: " + falsePositiveRate);
+        }
+        writeLock.lock();
+        try {
+            if (falsePositiveRate == 0) {
+                tripleFilter = null;
+            } else {
+                tripleFilter = fillTripleFilter(new TripleBloomFilter(
+                        Math.max(INITIAL_BLOOM_FILTER_CAPACITY, tripleIndex.size()), falsePositiveRate));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the counters of the Bloom filter checked by fully bound queries, including its
+     * configured, expected, and observed false-positive rates.
+     *
+     * @return a snapshot of the filter statistics, all 0 if the filter is disabled
+     */
+    public BloomFilterStatistics getBloomFilterStatistics() {
+        TripleBloomFilter filter = tripleFilter;
+        return filter == null ? new BloomFilterStatistics(0, 0, 0, 0, 0, 0, 0, 0, 0) : filter.getStatistics();
+    }
+
+    /**
+     * Adds every triple in the index to an empty Bloom filter. Must be called under writeLock.
+     *
+     * @return the filter
+     */
+    private TripleBloomFilter fillTripleFilter(TripleBloomFilter filter) {
+        for (EncodedTriple triple : tripleIndex.all()) {
+            filter.add(triple);
+        }
+        return filter;
+    }
+
+    /**
+     * Replaces the Bloom filter, if enabled, with one sized for and filled from the current
+     * triples. Must be called under writeLock.
+     */
+    private void rebuildTripleFilter() {
+        TripleBloomFilter filter = tripleFilter;
+        if (filter != null) {
+            tripleFilter = fillTripleFilter(filter.resize(Math.max(INITIAL_BLOOM_FILTER_CAPACITY, tripleIndex.size())));
+        }
+    }
+
+    private static boolean isFullyBound(EncodedTriple pattern) {
+        return pattern.subject != EncodedTriple.WILDCARD && pattern.predicate != EncodedTriple.WILDCARD
+                && pattern.object != EncodedTriple.WILDCARD;
+    }
+
+    /**
+     * Returns a snapshot of the hit, miss, eviction, and invalidation counters of the query result cache.
+     *
+     * @return the query cache statistics
+     */
+    public QueryCacheStatistics getQueryCacheStatistics() {
+        return queryCache.getStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the cardinality statistics of the graph: the number of triples, the
+     * distinct subjects and objects, degree histograms, and per-Predicate counts. The statistics
+     * are maintained as triples are imported and removed, so this does not scan the triples; its
+     * cost is proportional to the number of Predicates.
+     *
+     * @return the graph statistics
+     */
+    public GraphStatistics getStatistics() {
+        return readConsistently(() -> {
+            List<PredicateStatistics> predicates = new ArrayList<>();
+            for (int id : predicateDictionary.ids()) {
+                if (tripleIndex.predicateReferenceCount(id) > 0) {
+                    predicates.add(predicateStatistics(id));
+                }
+            }
+            predicates.sort((a, b) -> Integer.compare(b.getTripleCount(), a.getTripleCount()));
+            return new GraphStatistics(tripleIndex.size(), tripleIndex.distinctSubjectCount(),
+                    tripleIndex.distinctObjectCount(), tripleIndex.outDegreeHistogram(),
+                    tripleIndex.inDegreeHistogram(), predicates);
+        });
+    }
+
+    /**
+     * Returns a snapshot of the cardinality statistics of one Predicate in O(1).
+     *
+     * @param predicate the identifier of the Predicate
+     * @return the Predicate statistics, with all counts 0 if no triple uses the Predicate
+     */
+    public PredicateStatistics getPredicateStatistics(String predicate) {
+        return readConsistently(() -> {
+            int id = predicateDictionary.lookup(predicate);
+            return id == IdentifierDictionary.NOT_FOUND ? new PredicateStatistics(predicate, 0, 0, 0) : predicateStatistics(id);
+        });
+    }
+
+    private PredicateStatistics predicateStatistics(int predicateId) {
+        return new PredicateStatistics(predicateDictionary.get(predicateId).getIdentifier(),
+                tripleIndex.predicateReferenceCount(predicateId), tripleIndex.predicateSubjectCount(predicateId),
+                tripleIndex.predicateObjectCount(predicateId));
+    }
+
+    /**
+     * Executes a query against the knowledge graph and returns the matching Triples as a lazy Stream.
+     * Matches are read from the triple index as the Stream is consumed, so a query with many results
+     * does not build a result set in memory. Wildcards are represented by "?" as in executeQuery.
+     * The Stream is weakly consistent: Triples imported or removed while it is consumed may or
+     * may not be included.
+     *
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @return a Stream of the Triples matching the query pattern, in index order
+     */
+    public Stream<Triple> queryStream(String subject, String predicate, String object) {
+        return queryStream(subject, predicate, object, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Executes a query against the knowledge graph and returns one page of the matching Triples as
+     * a lazy Stream. Matches are returned in index order, which is stable between calls while the
+     * graph is not modified, so consecutive offsets page through the results.
+     *
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @param offset    the number of matching Triples to skip
+     * @param limit     the maximum number of Triples to return
+     * @return a Stream of at most limit Triples matching the query pattern
+     */
+    public Stream<Triple> queryStream(String subject, String predicate, String object, long offset, long limit) {
+        long stamp = version;
+        EncodedTriple pattern = encodeQuery(subject, predicate, object);
+        if (pattern == null) {
+            // An identifier that was never imported cannot match anything
+            return Stream.empty();
+        }
+        TripleBloomFilter filter = isFullyBound(pattern) ? tripleFilter : null;
+        if (filter != null) {
+            if (!filter.mightContain(pattern)) {
+                filter.recordLookup(true, false);
+                return Stream.empty();
+            }
+            // At most one triple matches, so look it up directly instead of scanning
+            EncodedTriple triple = tripleIndex.get(pattern.subject, pattern.predicate, pattern.object);
+            filter.recordLookup(false, triple == null);
+            if (triple == null) {
+                return Stream.empty();
+            }
+            return Stream.of(triple).skip(offset).limit(limit)
+                    .map(match -> toCurrentTriple(match, stamp, subject, predicate, object))
+                    .filter(Objects::nonNull);
+        }
+
+        return tripleIndex.scan(pattern.subject, pattern.predicate, pattern.object).stream()
+                .skip(offset)
+                .limit(limit)
+                .map(match -> toCurrentTriple(match, stamp, subject, predicate, object))
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * Materializes a Triple that a lazy Stream read outside a write section. If a write section
+     * ran since the query was encoded, the triple or the query's identifiers may have been removed
+     * and their IDs reused, so the triple is checked against the graph and the query again.
+     *
+     * @param triple    the encoded triple
+     * @param stamp     the version read before the query was encoded
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @return the Triple, or null if it no longer matches the query
+     */
+    private Triple toCurrentTriple(EncodedTriple triple, long stamp, String subject, String predicate, String object) {
+        if ((stamp & 1) == 0 && version == stamp) {
+            Triple materialized = toTriple(triple);
+            if (version == stamp) {
+                return materialized;
+            }
+        }
+        return readConsistently(() -> {
+            EncodedTriple pattern = encodeQuery(subject, predicate, object);
+            if (pattern == null
+                    || (pattern.subject != EncodedTriple.WILDCARD && pattern.subject != triple.subject)
+                    || (pattern.predicate != EncodedTriple.WILDCARD && pattern.predicate != triple.predicate)
+                    || (pattern.object != EncodedTriple.WILDCARD && pattern.object != triple.object)) {
+                return null;
+            }
+            EncodedTriple current = tripleIndex.get(triple.subject, triple.predicate, triple.object);
+            return current == null ? null : toTriple(current);
+        });
+    }
+
+    /**
+     * Executes a conjunctive query: a list of patterns that must all match, joined on their shared
+     * variables. For example, the patterns "?x plays_sport Hockey" and "?x works_at ?y" find every
+     * ?x that plays Hockey together with each place ?y that ?x works at. Patterns may also contain
+     * "?" wildcards, which match anything without binding a variable. The patterns are joined in
+     * order of estimated cardinality using the triple index.
+     *
+     * @param patterns the patterns that must all match
+     * @return one map of variable name to identifier for each distinct solution, or an empty list if
+     *         there are none; a query without variables has one empty solution if all patterns match
+     * @throws IllegalArgumentException if a variable is used both as a predicate and as a node
+     */
+    public List<Map<String, String>> executeConjunctiveQuery(List<TriplePattern> patterns) {
+        return readConsistently(() ->
+                new ConjunctiveQueryEvaluator(nodeDictionary, predicateDictionary, tripleIndex).evaluate(patterns));
+    }
+
+    /**
+     * Executes a query against the knowledge graph as it was at a past time: the Triples imported
+     * at or before that time and not removed by then. Removed Triples are only found if triple
+     * history was enabled when they were removed. Times are in seconds since the epoch, the unit
+     * of Triple.getCreateDate, and the returned Triples carry the time they were imported.
+     *
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @param time      the time to query at, in seconds since the epoch
+     * @return a set of Triples matching the query pattern at that time, or an empty set if none are found
+     */
+    public Set<Triple> executeQueryAsOf(String subject, String predicate, String object, long time) {
+        return readConsistently(() -> {
+            EncodedTriple pattern = encodeQuery(subject, predicate, object);
+            if (pattern == null) {
+                return Collections.<Triple>emptySet();
+            }
+            Set<Triple> matches = new HashSet<>();
+            for (EncodedTriple triple : tripleIndex.scan(pattern.subject, pattern.predicate, pattern.object)) {
+                if (triple.createDate <= time) {
+                    matches.add(toTriple(triple));
+                }
+            }
+            TripleHistory history = tripleHistory;
+            if (history != null) {
+                for (EncodedTriple version : history.scanAsOf(pattern.subject, pattern.predicate, pattern.object, time)) {
+                    matches.add(toTriple(version));
+                }
+            }
+            return Collections.unmodifiableSet(matches);
+        });
+    }
+
+    /**
+     * Enables or disables triple history. While it is enabled, each removed Triple is kept as a
+     * past version valid from its import to its removal, so executeQueryAsOf can still find it,
+     * and its Nodes and Predicate stay in the graph. Disabling it discards every past version.
+     * History is kept in memory only: it is not part of snapshots or the mutation log.
+     *
+     * @param enabled true to record removed Triples
+     */
+    public void setTripleHistoryEnabled(boolean enabled) {
+        beginWrite();
+        try {
+            if (enabled && tripleHistory == null) {
+                tripleHistory = new TripleHistory();
+            } else if (!enabled && tripleHistory != null) {
+                discardTripleHistory(Long.MAX_VALUE);
+                tripleHistory = null;
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Sets how long triple history keeps the past version of a removed Triple. Versions older
+     * than that are discarded as later removals are recorded, at most once per eighth of the
+     * retention, so history holds the removals of about one retention period, and the Nodes and
+     * Predicates only they referred to are removed with them.
+     *
+     * @param seconds the retention in seconds, or 0 to keep versions until they are discarded by
+     *                discardTripleHistoryBefore
+     * @throws IllegalArgumentException if seconds is negative
+     */
+    public void setTripleHistoryRetention(long seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Retention must not be negative: " + seconds);
+        }
+        beginWrite();
+        try {
+            tripleHistoryRetention = seconds;
+            nextTripleHistoryPrune = 0;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Discards the past versions of Triples removed at or before a time, bounding the memory
+     * triple history uses. Afterwards executeQueryAsOf no longer finds them for any time.
+     *
+     * @param time the time, in seconds since the epoch
+     * @return the number of versions discarded
+     */
+    public int discardTripleHistoryBefore(long time) {
+        beginWrite();
+        try {
+            return tripleHistory == null ? 0 : discardTripleHistory(time);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Discards past versions and removes the Nodes and Predicates only they referred to.
+     * Must be called in a write section.
+     */
+    private int discardTripleHistory(long time) {
+        List<EncodedTriple> discarded = tripleHistory.discardBefore(time);
+        Set<Integer> nodes = new HashSet<>();
+        Set<Integer> predicates = new HashSet<>();
+        for (EncodedTriple version : discarded) {
+            nodes.add(version.subject);
+            nodes.add(version.object);
+            predicates.add(version.predicate);
+        }
+        for (int nodeId : nodes) {
+            cleanupNodeIfUnused(nodeId);
+        }
+        for (int predicateId : predicates) {
+            cleanupPredicateIfUnused(predicateId);
+        }
+        return discarded.size();
+    }
+
+    /**
+     * Executes a transitive path query: finds every Node reachable from the subject by following
+     * one or more edges with the predicate, such as "subject has_a+ ?", and returns the edges that
+     * were followed. The objects of the returned Triples are the reachable Nodes, so a whole
+     * hierarchy comes back in one call. The graph is walked breadth-first, reading each Node's
+     * outgoing edges as one range of the SPO index; cycles are followed only once.
+     *
+     * @param subject   the identifier of the Node to start from
+     * @param predicate the identifier of the Predicate to follow, or "?" to follow every Predicate
+     * @return the Triples on paths from the subject, or an empty set if none are found
+     * @throws IllegalArgumentException if the subject is the "?" wildcard
+     */
+    public Set<Triple> executeTransitiveQuery(String subject, String predicate) {
+        if ("?".equals(subject)) {
+            throw new IllegalArgumentException("The subject of a transitive query must be bound");
+        }
+        return readConsistently(() -> {
+            EncodedTriple pattern = encodeQuery(subject, predicate, "?");
+            if (pattern == null) {
+                return Collections.<Triple>emptySet();
+            }
+            Set<Triple> edges = new HashSet<>();
+            BitSet visited = new BitSet();
+            int[] frontier = {pattern.subject};
+            int frontierSize = 1;
+            visited.set(pattern.subject);
+            while (frontierSize > 0) {
+                int[] next = new int[16];
+                int nextSize = 0;
+                for (int i = 0; i < frontierSize; i++) {
+                    for (EncodedTriple triple : tripleIndex.scan(frontier[i], pattern.predicate, EncodedTriple.WILDCARD)) {
+                        edges.add(toTriple(triple));
+                        if (!visited.get(triple.object)) {
+                            visited.set(triple.object);
+                            if (nextSize == next.length) {
+                                next = Arrays.copyOf(next, nextSize * 2);
+                            }
+                            next[nextSize++] = triple.object;
+                        }
+                    }
                 }
+                frontier = next;
+                frontierSize = nextSize;
             }
+            return Collections.unmodifiableSet(edges);
+        });
+    }
+
+    /**
+     * Applies every operation of the batch in one write section: a single TripleBatch can move an
+     * occupant between rooms or load many triples, and executeQuery and executeConjunctiveQuery
+     * see either none or all of its operations. Operations are applied in the order they were
+     * added; each run of consecutive imports is interned and then inserted in SPO index order,
+     * so neighbouring triples are inserted together. With the mutation log enabled, the batch is
+     * logged as a unit and recovered only if it was logged completely.
+     *
+     * @param batch the operations to apply
+     */
+    public void applyBatch(TripleBatch batch) {
+        List<TripleBatch.Operation> operations = batch.operations();
+        if (operations.isEmpty()) {
+            return;
         }
-        for (String k : emptyKeys) {
-            queryMapSet.remove(k);
+        long sequence = 0;
+        beginWrite();
+        try {
+            if (mutationLog != null) {
+                sequence = mutationLog.appendBatch(operations);
+            }
+            applyOperations(operations);
+            checkpointIfDue();
+        } finally {
+            endWrite();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Applies batch operations in order. Must be called in a write section.
+     */
+    private void applyOperations(List<TripleBatch.Operation> operations) {
+        List<EncodedTriple> imports = new ArrayList<>();
+        for (TripleBatch.Operation operation : operations) {
+            if (operation.code == MutationLog.IMPORT_TRIPLE) {
+                String[] terms = operation.terms;
+                imports.add(EncodedTriple.pattern(nodeDictionary.intern(terms[0], Node::new),
+                        predicateDictionary.intern(terms[1], Predicate::new), nodeDictionary.intern(terms[2], Node::new)));
+                continue;
+            }
+            storeSorted(imports);
+            applyLoggedMutation(operation.code, operation.terms);
+        }
+        storeSorted(imports);
+    }
+
+    /**
+     * Stores a run of interned triples in SPO order and empties the list.
+     */
+    private void storeSorted(List<EncodedTriple> imports) {
+        imports.sort(TripleIndex.SPO_ORDER);
+        long createDate = System.currentTimeMillis() / 1000L;
+        for (EncodedTriple triple : imports) {
+            storeEncodedTriple(triple.subject, triple.predicate, triple.object, createDate);
+        }
+        imports.clear();
+    }
+
+    /**
+     * Subscribes an observer to the imports and removals of the Triples matching a pattern, with
+     * a queue of 4096 changes delivered in batches of up to 256.
+     *
+     * @param subject   the subject identifier to match, or "?" as a wildcard
+     * @param predicate the predicate identifier to match, or "?" as a wildcard
+     * @param object    the object identifier to match, or "?" as a wildcard
+     * @param observer  the observer to deliver matching changes to
+     * @return the subscription, which stops delivery when cancelled
+     */
+    public TripleSubscription subscribe(String subject, String predicate, String object,
+            TripleChangeObserver observer) {
+        return subscribe(subject, predicate, object, observer, DEFAULT_SUBSCRIPTION_QUEUE_CAPACITY,
+                DEFAULT_SUBSCRIPTION_BATCH_SIZE);
+    }
+
+    /**
+     * Subscribes an observer to the imports and removals of the Triples matching a pattern.
+     * Matching is case-insensitive. Changes are delivered on a thread of the subscription, so
+     * writers never wait for the observer; the changes of a write that do not fit in the queue
+     * are dropped and reported to the observer's onOverflow instead. Loading a snapshot or
+     * recovering from the mutation log is also reported as an overflow.
+     *
+     * @param subject       the subject identifier to match, or "?" as a wildcard
+     * @param predicate     the predicate identifier to match, or "?" as a wildcard
+     * @param object        the object identifier to match, or "?" as a wildcard
+     * @param observer      the observer to deliver matching changes to
+     * @param queueCapacity the number of changes that can wait for delivery
+     * @param maxBatchSize  the most changes passed to the observer in one call, unless the changes
+     *                      of a single write are more
+     * @return the subscription, which stops delivery when cancelled
+     */
+    public TripleSubscription subscribe(String subject, String predicate, String object,
+            TripleChangeObserver observer, int queueCapacity, int maxBatchSize) {
+        if (subject == null || predicate == null || object == null || observer == null) {
+            throw new IllegalArgumentException("Pattern terms and observer must not be null");
+        }
+        TripleSubscription subscription = new TripleSubscription(this, subject, predicate, object, observer,
+                queueCapacity, maxBatchSize);
+        writeLock.lock();
+        try {
+            TripleSubscription[] current = subscriptions;
+            TripleSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            subscriptions = updated;
+        } finally {
+            writeLock.unlock();
+        }
+        return subscription;
+    }
+
+    /**
+     * Removes a subscription, discarding its changes not yet queued. Called by TripleSubscription.cancel.
+     *
+     * @param subscription the subscription to remove
+     */
+    void unsubscribe(TripleSubscription subscription) {
+        writeLock.lock();
+        try {
+            List<TripleSubscription> remaining = new ArrayList<>(Arrays.asList(subscriptions));
+            if (remaining.remove(subscription)) {
+                subscriptions = remaining.toArray(new TripleSubscription[0]);
+            }
+            subscription.pending.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Adds a change to the pending changes of the subscriptions it matches. Must be called in a
+     * write section, while the triple's IDs are still in the dictionaries.
+     *
+     * @param type   whether the triple was imported or removed
+     * @param triple the encoded triple
+     */
+    private void recordChange(TripleChange.Type type, EncodedTriple triple) {
+        TripleSubscription[] current = subscriptions;
+        if (current.length == 0) {
+            return;
+        }
+        TripleChange change = null;
+        for (TripleSubscription subscription : current) {
+            if (matches(subscription, triple)) {
+                if (change == null) {
+                    change = new TripleChange(type, toTriple(triple));
+                }
+                subscription.pending.add(change);
+            }
+        }
+    }
+
+    /**
+     * Returns whether an encoded triple matches the pattern of a subscription.
+     */
+    private boolean matches(TripleSubscription subscription, EncodedTriple triple) {
+        int[] ids = resolvePattern(subscription);
+        if (ids == null) {
+            return false;
+        }
+        return (ids[0] == EncodedTriple.WILDCARD || ids[0] == triple.subject)
+                && (ids[1] == EncodedTriple.WILDCARD || ids[1] == triple.predicate)
+                && (ids[2] == EncodedTriple.WILDCARD || ids[2] == triple.object);
+    }
+
+    /**
+     * Returns the IDs of a subscription's pattern, with WILDCARD for "?", resolving them again if
+     * an identifier was removed from a dictionary since they were last resolved.
+     *
+     * @return the IDs, or null if an identifier of the pattern is not in the graph
+     */
+    private int[] resolvePattern(TripleSubscription subscription) {
+        if (subscription.resolvedIds != null && subscription.resolvedAtRemoval == dictionaryRemovals) {
+            return subscription.resolvedIds;
+        }
+        int[] ids = {
+                subscription.subject == null ? EncodedTriple.WILDCARD : nodeDictionary.lookup(subscription.subject),
+                subscription.predicate == null ? EncodedTriple.WILDCARD : predicateDictionary.lookup(subscription.predicate),
+                subscription.object == null ? EncodedTriple.WILDCARD : nodeDictionary.lookup(subscription.object)};
+        if (ids[0] == IdentifierDictionary.NOT_FOUND || ids[1] == IdentifierDictionary.NOT_FOUND
+                || ids[2] == IdentifierDictionary.NOT_FOUND) {
+            // Not cached, since the identifier may be imported later
+            subscription.resolvedIds = null;
+            return null;
+        }
+        subscription.resolvedIds = ids;
+        subscription.resolvedAtRemoval = dictionaryRemovals;
+        return ids;
+    }
+
+    /**
+     * Starts a write section: takes writeLock and, unless the current thread is already in a
+     * write section, makes version odd so optimistic readers know to retry.
+     */
+    private void beginWrite() {
+        writeLock.lock();
+        if (writeLock.getHoldCount() == 1) {
+            version++;
+        }
+    }
+
+    /**
+     * Ends a write section started by beginWrite, making version even again, and queues the
+     * changes the section made for delivery to subscribers.
+     */
+    private void endWrite() {
+        if (writeLock.getHoldCount() == 1) {
+            version++;
+            for (TripleSubscription subscription : subscriptions) {
+                subscription.publishPending();
+            }
+        }
+        writeLock.unlock();
+    }
+
+    /**
+     * Runs a read so that it reflects no partially applied write section. The read is retried
+     * while version shows that a write section ran during it; after OPTIMISTIC_READ_ATTEMPTS
+     * collisions it runs under writeLock instead. QueryEngine runs each query of a parallel query
+     * file this way.
+     *
+     * @param read the read to run; it must not modify the graph
+     * @return the result of the read
+     */
+    <T> T readConsistently(Supplier<T> read) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = version;
+            if ((stamp & 1) == 0) {
+                T result = read.get();
+                if (version == stamp) {
+                    return result;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        writeLock.lock();
+        try {
+            return read.get();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Holds off writers until unblockWrites is called by the same thread, so that reads on any
+     * number of other threads all see one state of the graph. Reads never wait for writeLock
+     * while it is held this way, since version cannot change.
+     */
+    void blockWrites() {
+        writeLock.lock();
+    }
+
+    /**
+     * Lets writers held off by blockWrites proceed.
+     */
+    void unblockWrites() {
+        writeLock.unlock();
+    }
+
+    /**
+     * Writes a binary snapshot of the knowledge graph to the specified file. Writers are blocked
+     * while the snapshot is written, so it reflects a single consistent state; queries continue.
+     *
+     * @param fileName the path of the snapshot file to write
+     * @throws PersistenceException if the snapshot cannot be written
+     */
+    public void saveSnapshot(String fileName) throws PersistenceException {
+        writeLock.lock();
+        try {
+            GraphSnapshot.save(Paths.get(fileName), nodeDictionary, predicateDictionary, tripleIndex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the knowledge graph with a snapshot written by saveSnapshot.
+     * The file is memory-mapped and the indexes are rebuilt from the encoded triples, which is
+     * much faster than importing the original triple files. Loading is meant to happen at startup:
+     * queries running concurrently with a load may fail or see a partially loaded graph.
+     * If the load fails, the graph is left empty. If the mutation log is enabled, the loaded
+     * contents are checkpointed.
+     *
+     * @param fileName the path of the snapshot file to read
+     * @throws PersistenceException if the file cannot be read, is not a valid snapshot, or is corrupt
+     */
+    public void loadSnapshot(String fileName) throws PersistenceException {
+        beginWrite();
+        try {
+            clear();
+            try {
+                GraphSnapshot.load(Paths.get(fileName), nodeDictionary, predicateDictionary, tripleIndex);
+                rebuildTripleFilter();
+            } catch (PersistenceException e) {
+                clear();
+                throw e;
+            }
+            if (mutationLog != null) {
+                // The log records predate the loaded contents, so replace them with a checkpoint
+                checkpoint();
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Removes every Triple, Node, and Predicate. Must be called in a write section.
+     */
+    private void clear() {
+        // Subscribers cannot follow a wholesale replacement change by change, so they resync
+        for (TripleSubscription subscription : subscriptions) {
+            int[] ids = resolvePattern(subscription);
+            long matching = ids == null ? 0 : tripleIndex.count(ids[0], ids[1], ids[2], Integer.MAX_VALUE);
+            subscription.pending.clear();
+            subscription.drop(Math.max(1, matching));
+        }
+        dictionaryRemovals++;
+        queryCache.clear();
+        tripleIndex.clear();
+        rebuildTripleFilter();
+        if (tripleHistory != null) {
+            tripleHistory.clear();
+        }
+        nodeDictionary.clear();
+        predicateDictionary.clear();
+    }
+
+    /**
+     * Makes the knowledge graph durable by logging every mutation to an append-only log in the
+     * specified directory, and periodically checkpointing the graph into a snapshot there.
+     * If the directory already holds a checkpoint or log from an earlier run, the graph is first
+     * recovered from them, replacing its current contents; otherwise the current contents are
+     * written as the first checkpoint.
+     *
+     * The sync interval trades durability for write throughput: with 0, each mutation returns only
+     * after its log record is synced to disk, with concurrent writers sharing one fsync; with a
+     * positive interval, mutations return immediately and the log is synced in the background at
+     * that interval, so a crash can lose the mutations of the last interval.
+     *
+     * @param directory          the directory holding the checkpoint snapshot and the log
+     * @param syncIntervalMillis 0 to sync each mutation before it returns, or the interval between
+     *                           background syncs in milliseconds
+     * @param checkpointInterval the number of logged mutations after which the graph is checkpointed
+     *                           in the background and the log truncated; 0 to checkpoint only when
+     *                           checkpoint() is called
+     * @throws PersistenceException if the directory cannot be read or written, or holds a corrupt checkpoint
+     */
+    public void enableMutationLog(String directory, long syncIntervalMillis, long checkpointInterval)
+            throws PersistenceException {
+        beginWrite();
+        try {
+            if (mutationLog != null) {
+                throw new PersistenceException("Mutation log is already enabled in " + logDirectory);
+            }
+            Path logPath = Paths.get(directory);
+            Path checkpointFile = logPath.resolve(CHECKPOINT_FILE_NAME);
+            Path logFile = logPath.resolve(LOG_FILE_NAME);
+            Path sealedLogFile = logPath.resolve(SEALED_LOG_FILE_NAME);
+            try {
+                Files.createDirectories(logPath);
+                boolean recovering = Files.exists(checkpointFile) || Files.exists(logFile)
+                        || Files.exists(sealedLogFile);
+                if (Files.exists(checkpointFile)) {
+                    loadSnapshot(checkpointFile.toString());
+                } else if (recovering) {
+                    clear();
+                }
+                // Left by a background checkpoint that did not complete, and older than the log
+                MutationLog.replay(sealedLogFile, this::applyLoggedMutation);
+                long validLength = MutationLog.replay(logFile, this::applyLoggedMutation);
+                logDirectory = logPath;
+                this.checkpointInterval = checkpointInterval;
+                mutationLog = new MutationLog(logFile, validLength, syncIntervalMillis);
+                if (!recovering) {
+                    checkpoint();
+                }
+            } catch (IOException e) {
+                throw new PersistenceException("Error opening mutation log in " + directory + ": " + e.getMessage(), e);
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Writes a checkpoint snapshot of the knowledge graph to the mutation log directory and
+     * truncates the log, which bounds the time needed to recover after a restart.
+     *
+     * @throws PersistenceException if the mutation log is not enabled or the checkpoint cannot be written
+     */
+    public void checkpoint() throws PersistenceException {
+        writeLock.lock();
+        try {
+            if (mutationLog == null) {
+                throw new PersistenceException("Mutation log is not enabled");
+            }
+            // Waits for a background checkpoint to finish writing its older snapshot
+            checkpointLock.lock();
+            try {
+                // Replaying the log over a newer checkpoint is harmless, so a crash between these
+                // steps loses nothing: every logged mutation can be applied more than once
+                saveSnapshot(logDirectory.resolve(CHECKPOINT_FILE_NAME).toString());
+                try {
+                    mutationLog.truncate();
+                    Files.deleteIfExists(logDirectory.resolve(SEALED_LOG_FILE_NAME));
+                } catch (IOException e) {
+                    throw new PersistenceException("Error truncating mutation log: " + e.getMessage(), e);
+                }
+            } finally {
+                checkpointLock.unlock();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Checkpoints the graph without holding writeLock while the snapshot is written. Runs on the
+     * thread started by checkpointIfDue. A failure is reported on standard error and leaves the
+     * sealed log in place, so no mutation is lost and the next checkpoint tries again.
+     */
+    private void checkpointInBackground() {
+        try {
+            Path directory;
+            GraphSnapshot.Image image;
+            writeLock.lock();
+            try {
+                if (mutationLog == null) {
+                    return;
+                }
+                // Held until the snapshot is written, so an explicit checkpoint cannot come between
+                checkpointLock.lock();
+                directory = logDirectory;
+                try {
+                    image = GraphSnapshot.capture(nodeDictionary, predicateDictionary, tripleIndex);
+                    mutationLog.rotate(directory.resolve(SEALED_LOG_FILE_NAME));
+                } catch (PersistenceException | IOException | RuntimeException e) {
+                    checkpointLock.unlock();
+                    reportCheckpointFailure(e);
+                    return;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            try {
+                GraphSnapshot.save(directory.resolve(CHECKPOINT_FILE_NAME), image);
+                Files.deleteIfExists(directory.resolve(SEALED_LOG_FILE_NAME));
+            } catch (PersistenceException | IOException | RuntimeException e) {
+                reportCheckpointFailure(e);
+            } finally {
+                checkpointLock.unlock();
+            }
+        } finally {
+            backgroundCheckpointRunning = false;
+        }
+    }
+
+    private void reportCheckpointFailure(Exception e) {
+        // There is no caller to throw to; the mutations are still in the log
+        System.err.println("KnowledgeGraph " + name + " checkpoint failed: " + e);
+    }
+
+    /**
+     * Syncs and closes the mutation log. Later mutations are kept in memory only.
+     *
+     * @throws PersistenceException if the buffered log records cannot be written
+     */
+    public void disableMutationLog() throws PersistenceException {
+        writeLock.lock();
+        try {
+            if (mutationLog == null) {
+                return;
+            }
+            try {
+                mutationLog.close();
+            } catch (IOException e) {
+                throw new PersistenceException("Error closing mutation log: " + e.getMessage(), e);
+            } finally {
+                mutationLog = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a mutation to the mutation log, if it is enabled. Must be called under writeLock.
+     *
+     * @return the sequence number of the log record, or 0 if the log is not enabled
+     */
+    private long logMutation(byte operation, String... terms) {
+        return mutationLog == null ? 0 : mutationLog.append(operation, terms);
+    }
+
+    /**
+     * Waits until the log record with the specified sequence number is durable, as configured.
+     * Called after releasing writeLock, so other writers can append while this one waits.
+     */
+    private void awaitDurable(long sequence) {
+        MutationLog log = mutationLog;
+        if (log != null && sequence > 0) {
+            log.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Starts a background checkpoint if enough mutations have been logged since the last
+     * checkpoint and none is running. Must be called under writeLock. The mutation that made the
+     * checkpoint due neither waits for it nor fails with it.
+     */
+    private void checkpointIfDue() {
+        if (mutationLog == null || checkpointInterval <= 0 || backgroundCheckpointRunning
+                || mutationLog.getRecordsSinceCheckpoint() < checkpointInterval) {
+            return;
+        }
+        backgroundCheckpointRunning = true;
+        Thread checkpointer = new Thread(this::checkpointInBackground, "KnowledgeGraph-Checkpoint-" + name);
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Applies one mutation read from the mutation log during recovery.
+     */
+    private void applyLoggedMutation(byte operation, String[] terms) {
+        switch (operation) {
+            case MutationLog.IMPORT_TRIPLE:
+                storeTriple(terms[0], terms[1], terms[2]);
+                break;
+            case MutationLog.REMOVE_TRIPLES_BY_SUBJECT_AND_PREDICATE:
+                applyRemoveTriplesBySubjectAndPredicate(terms[0], terms[1]);
+                break;
+            case MutationLog.REMOVE_ALL_MENTIONS_OF_SUBJECT:
+                applyRemoveAllMentionsOfSubject(terms[0]);
+                break;
+            case MutationLog.REMOVE_ALL_MENTIONS_OF_PREDICATE:
+                applyRemoveAllMentionsOfPredicate(terms[0]);
+                break;
+            default:
+                throw new IllegalStateException("Unknown mutation log operation " + operation);
+        }
+    }
+
+    /**
+     * Interns the subject, predicate, and object identifiers and stores the encoded triple in
+     * the triple index if it is not already present.
+     *
+     * @param subject   the identifier for the subject Node
+     * @param predicate the identifier for the Predicate
+     * @param object    the identifier for the object Node
+     * @return the stored EncodedTriple
+     */
+    private EncodedTriple storeTriple(String subject, String predicate, String object) {
+        int s = nodeDictionary.intern(subject, Node::new);
+        int p = predicateDictionary.intern(predicate, Predicate::new);
+        int o = nodeDictionary.intern(object, Node::new);
+        return storeEncodedTriple(s, p, o, System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * Stores the triple with the specified IDs in the triple index if it is not already present.
+     *
+     * @return the stored EncodedTriple
+     */
+    private EncodedTriple storeEncodedTriple(int s, int p, int o, long createDate) {
+        EncodedTriple existing = tripleIndex.get(s, p, o);
+        if (existing != null) {
+            return existing;
+        }
+        EncodedTriple tripleToAdd = new EncodedTriple(s, p, o, createDate);
+        tripleIndex.add(tripleToAdd);
+        queryCache.invalidate(tripleToAdd);
+        TripleBloomFilter filter = tripleFilter;
+        if (filter != null) {
+            filter.add(tripleToAdd);
+            if (filter.isFull()) {
+                tripleFilter = fillTripleFilter(filter.resize(filter.capacity() * 2));
+            }
+        }
+        recordChange(TripleChange.Type.ADDED, tripleToAdd);
+        return tripleToAdd;
+    }
+
+    /**
+     * Converts the terms of a query to an encoded pattern.
+     *
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @return the encoded pattern, or null if an identifier is not in the graph
+     */
+    private EncodedTriple encodeQuery(String subject, String predicate, String object) {
+        int s = encodeQueryTerm(nodeDictionary, subject);
+        int p = encodeQueryTerm(predicateDictionary, predicate);
+        int o = encodeQueryTerm(nodeDictionary, object);
+        if (s == IdentifierDictionary.NOT_FOUND || p == IdentifierDictionary.NOT_FOUND
+                || o == IdentifierDictionary.NOT_FOUND) {
+            return null;
+        }
+        return EncodedTriple.pattern(s, p, o);
+    }
+
+    /**
+     * Converts a query term to its dictionary ID. The "?" wildcard is converted to WILDCARD.
+     *
+     * @param dictionary the dictionary to look the term up in
+     * @param term       the query term
+     * @return the ID of the term, WILDCARD, or NOT_FOUND if the term is not in the dictionary
+     */
+    private static int encodeQueryTerm(IdentifierDictionary<?> dictionary, String term) {
+        return "?".equals(term) ? EncodedTriple.WILDCARD : dictionary.lookup(term);
+    }
+
+    /**
+     * Materializes a Triple from its encoded form.
+     *
+     * @param triple the encoded triple
+     * @return the Triple with the Nodes and Predicate the IDs refer to
+     */
+    private Triple toTriple(EncodedTriple triple) {
+        return new Triple(nodeDictionary.get(triple.subject), predicateDictionary.get(triple.predicate),
+                nodeDictionary.get(triple.object), triple.createDate);
+    }
+
+    /**
+     * Remove a single Triple from the triple index. Each permutation index is updated with one
+     * O(log n) removal, and the cached results the triple was part of are invalidated.
+     *
+     * @param triple the EncodedTriple to remove
+     */
+    private void removeTriple(EncodedTriple triple) {
+        if (triple == null) return;
+        if (tripleIndex.remove(triple)) {
+            queryCache.invalidate(triple);
+            TripleBloomFilter filter = tripleFilter;
+            if (filter != null) {
+                filter.remove(triple);
+            }
+            recordChange(TripleChange.Type.REMOVED, triple);
+            if (tripleHistory != null) {
+                long now = System.currentTimeMillis() / 1000L;
+                tripleHistory.record(triple, now);
+                if (tripleHistoryRetention > 0 && now >= nextTripleHistoryPrune) {
+                    discardTripleHistory(now - tripleHistoryRetention);
+                    nextTripleHistoryPrune = now + Math.max(1, tripleHistoryRetention / 8);
+                }
+            }
         }
     }
 
@@ -161,19 +1446,29 @@ public class KnowledgeGraph {
      */
     public void removeTriplesBySubjectAndPredicate(String subject, String predicate) {
         if (subject == null || predicate == null) return;
-        List<Triple> toRemove = new ArrayList<>();
-        for (Triple t : tripleMap.values()) {
-            if (t.getSubject().getIdentifier().equalsIgnoreCase(subject)
-                    && t.getPredicate().getIdentifier().equalsIgnoreCase(predicate)) {
-                toRemove.add(t);
-            }
+        long sequence;
+        beginWrite();
+        try {
+            sequence = logMutation(MutationLog.REMOVE_TRIPLES_BY_SUBJECT_AND_PREDICATE, subject, predicate);
+            applyRemoveTriplesBySubjectAndPredicate(subject, predicate);
+            checkpointIfDue();
+        } finally {
+            endWrite();
         }
-        for (Triple t : toRemove) {
+        awaitDurable(sequence);
+    }
+
+    private void applyRemoveTriplesBySubjectAndPredicate(String subject, String predicate) {
+        int s = nodeDictionary.lookup(subject);
+        int p = predicateDictionary.lookup(predicate);
+        if (s == IdentifierDictionary.NOT_FOUND || p == IdentifierDictionary.NOT_FOUND) return;
+        List<EncodedTriple> toRemove = new ArrayList<>(tripleIndex.scan(s, p, EncodedTriple.WILDCARD));
+        for (EncodedTriple t : toRemove) {
             removeTriple(t);
         }
         // cleanup nodes/predicates that are no longer referenced
-        cleanupNodeIfUnused(subject);
-        cleanupPredicateIfUnused(predicate);
+        cleanupNodeIfUnused(s);
+        cleanupPredicateIfUnused(p);
     }
 
     /**
@@ -184,15 +1479,26 @@ public class KnowledgeGraph {
      */
     public void removeAllMentionsOfSubject(String subject) {
         if (subject == null) return;
-        List<Triple> toRemove = new ArrayList<>();
-        for (Triple t : tripleMap.values()) {
-            if (t.getSubject().getIdentifier().equalsIgnoreCase(subject)
-                    || t.getObject().getIdentifier().equalsIgnoreCase(subject)) {
-                toRemove.add(t);
-            }
+        long sequence;
+        beginWrite();
+        try {
+            sequence = logMutation(MutationLog.REMOVE_ALL_MENTIONS_OF_SUBJECT, subject);
+            applyRemoveAllMentionsOfSubject(subject);
+            checkpointIfDue();
+        } finally {
+            endWrite();
         }
-        for (Triple t : toRemove) removeTriple(t);
-        cleanupNodeIfUnused(subject);
+        awaitDurable(sequence);
+    }
+
+    private void applyRemoveAllMentionsOfSubject(String subject) {
+        int s = nodeDictionary.lookup(subject);
+        if (s == IdentifierDictionary.NOT_FOUND) return;
+        // The subject's triples from SPO, then the triples it is the object of from OSP
+        List<EncodedTriple> toRemove = new ArrayList<>(tripleIndex.scan(s, EncodedTriple.WILDCARD, EncodedTriple.WILDCARD));
+        toRemove.addAll(tripleIndex.scan(EncodedTriple.WILDCARD, EncodedTriple.WILDCARD, s));
+        for (EncodedTriple t : toRemove) removeTriple(t);
+        cleanupNodeIfUnused(s);
     }
 
     /**
@@ -203,35 +1509,42 @@ public class KnowledgeGraph {
      */
     public void removeAllMentionsOfPredicate(String predicate) {
         if (predicate == null) return;
-        List<Triple> toRemove = new ArrayList<>();
-        for (Triple t : tripleMap.values()) {
-            if (t.getPredicate().getIdentifier().equalsIgnoreCase(predicate)) {
-                toRemove.add(t);
-            }
+        long sequence;
+        beginWrite();
+        try {
+            sequence = logMutation(MutationLog.REMOVE_ALL_MENTIONS_OF_PREDICATE, predicate);
+            applyRemoveAllMentionsOfPredicate(predicate);
+            checkpointIfDue();
+        } finally {
+            endWrite();
         }
-        for (Triple t : toRemove) removeTriple(t);
-        cleanupPredicateIfUnused(predicate);
+        awaitDurable(sequence);
     }
 
-    private void cleanupNodeIfUnused(String nodeId) {
-        if (nodeId == null) return;
-        for (Triple t : tripleMap.values()) {
-            if (t.getSubject().getIdentifier().equalsIgnoreCase(nodeId)
-                    || t.getObject().getIdentifier().equalsIgnoreCase(nodeId)) {
-                return; // still in use
-            }
+    private void applyRemoveAllMentionsOfPredicate(String predicate) {
+        int p = predicateDictionary.lookup(predicate);
+        if (p == IdentifierDictionary.NOT_FOUND) return;
+        List<EncodedTriple> toRemove = new ArrayList<>(tripleIndex.scan(EncodedTriple.WILDCARD, p, EncodedTriple.WILDCARD));
+        for (EncodedTriple t : toRemove) removeTriple(t);
+        cleanupPredicateIfUnused(p);
+    }
+
+    private void cleanupNodeIfUnused(int nodeId) {
+        if (tripleIndex.nodeReferenceCount(nodeId) > 0
+                || (tripleHistory != null && tripleHistory.nodeReferenceCount(nodeId) > 0)) {
+            return; // still in use
         }
-        nodeMap.remove(nodeId);
+        nodeDictionary.remove(nodeDictionary.get(nodeId).getIdentifier());
+        dictionaryRemovals++;
     }
 
-    private void cleanupPredicateIfUnused(String predicateId) {
-        if (predicateId == null) return;
-        for (Triple t : tripleMap.values()) {
-            if (t.getPredicate().getIdentifier().equalsIgnoreCase(predicateId)) {
-                return; // still in use
-            }
+    private void cleanupPredicateIfUnused(int predicateId) {
+        if (tripleIndex.predicateReferenceCount(predicateId) > 0
+                || (tripleHistory != null && tripleHistory.predicateReferenceCount(predicateId) > 0)) {
+            return; // still in use
         }
-        predicateMap.remove(predicateId);
+        predicateDictionary.remove(predicateDictionary.get(predicateId).getIdentifier());
+        dictionaryRemovals++;
     }
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,441 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of KnowledgeGraph mutations. Each mutation is appended as one record before it
+ * is applied, so after a crash the graph is recovered by loading the last checkpoint snapshot and
+ * replaying the log on top of it.
+ *
+ * Record layout, big-endian: int payload length, int CRC32C of the payload, then the payload:
+ * byte operation, byte term count, and per term an int length followed by UTF-8 bytes. A torn or
+ * corrupt record at the end of the log, left by a crash during a write, ends the replay, as does
+ * a batch whose commit record was never written. A batch is buffered as a unit, so its commit
+ * record can only be missing at the end of the log; replay discards an open batch if another
+ * batch begins after it.
+ *
+ * Records are appended to an in-memory buffer and written to the file with fsync in batches:
+ * <ul>
+ *   <li>With a sync interval of 0, a mutation returns only once its record has been synced. A
+ *       writer that finds a sync in progress waits for it and then syncs every record appended
+ *       meanwhile with one fsync, so concurrent writers share the cost (group commit).</li>
+ *   <li>With a positive sync interval, mutations return as soon as the record is buffered and a
+ *       background thread syncs the buffer at that interval. A crash can lose the mutations of at
+ *       most the last interval, in exchange for not waiting on the disk.</li>
+ * </ul>
+ */
+final class MutationLog {
+
+    static final byte IMPORT_TRIPLE = 1;
+    static final byte REMOVE_TRIPLES_BY_SUBJECT_AND_PREDICATE = 2;
+    static final byte REMOVE_ALL_MENTIONS_OF_SUBJECT = 3;
+    static final byte REMOVE_ALL_MENTIONS_OF_PREDICATE = 4;
+    // Frame the records of a TripleBatch, which are replayed only if the commit record is present
+    static final byte BEGIN_BATCH = 5;
+    static final byte COMMIT_BATCH = 6;
+
+    // A buffered writer syncs inline once this much is pending, bounding the buffer size
+    private static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte[][] NO_TERMS = new byte[0][];
+
+    private final Path file;
+    private final long syncIntervalMillis;
+    private final ScheduledExecutorService syncer;
+
+    // Guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private long appendedSequence;
+    private long recordsSinceCheckpoint;
+
+    // Serializes writing and syncing the pending records
+    private final Object syncLock = new Object();
+    // Guarded by syncLock; replaced when the log is rotated
+    private FileChannel channel;
+    private volatile long syncedSequence;
+    private volatile IOException failure;
+
+    /**
+     * Opens the log for appending, truncating any torn record or uncommitted batch left at its end
+     * and reporting the discarded length on System.err.
+     *
+     * @param file               the log file
+     * @param validLength        the length of the valid records, as returned by replay
+     * @param syncIntervalMillis 0 to sync before each mutation returns, or the interval between
+     *                           background syncs
+     * @throws IOException if the log cannot be opened
+     */
+    MutationLog(Path file, long validLength, long syncIntervalMillis) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long discarded = channel.size() - validLength;
+        if (discarded > 0) {
+            // Recovery goes on without them, but the loss should not go unnoticed
+            System.err.println("Mutation log " + file + ": discarding " + discarded
+                    + " bytes of torn records or an uncommitted batch at its end");
+        }
+        this.channel.truncate(validLength);
+        this.channel.position(validLength);
+        this.syncIntervalMillis = syncIntervalMillis;
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "KnowledgeGraph-MutationLog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::backgroundSync, syncIntervalMillis, syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Appends a mutation record to the buffer. Callers must append in the order the mutations
+     * are applied.
+     *
+     * @param operation the operation code
+     * @param terms     the identifiers the operation was called with
+     * @return the sequence number of the record, to pass to awaitDurable
+     * @throws UncheckedIOException if an earlier background write of the log failed
+     */
+    synchronized long append(byte operation, String... terms) {
+        checkUsable();
+        putRecord(operation, encode(terms));
+        recordsSinceCheckpoint++;
+        return ++appendedSequence;
+    }
+
+    /**
+     * Appends the records of a TripleBatch to the buffer, framed by BEGIN_BATCH and COMMIT_BATCH.
+     * Every term is encoded before the first record is buffered, so a batch that cannot be
+     * encoded appends nothing, and a batch without its commit record can only be at the end of
+     * the log.
+     *
+     * @param operations the operations of the batch
+     * @return the sequence number of the commit record, to pass to awaitDurable
+     * @throws UncheckedIOException if an earlier background write of the log failed
+     */
+    synchronized long appendBatch(List<TripleBatch.Operation> operations) {
+        checkUsable();
+        List<byte[][]> encoded = new ArrayList<>(operations.size());
+        for (TripleBatch.Operation operation : operations) {
+            encoded.add(encode(operation.terms));
+        }
+        putRecord(BEGIN_BATCH, NO_TERMS);
+        for (int i = 0; i < encoded.size(); i++) {
+            putRecord(operations.get(i).code, encoded.get(i));
+        }
+        putRecord(COMMIT_BATCH, NO_TERMS);
+        recordsSinceCheckpoint += encoded.size() + 2;
+        appendedSequence += encoded.size() + 2;
+        return appendedSequence;
+    }
+
+    private void checkUsable() {
+        IOException error = failure;
+        if (error != null) {
+            throw new UncheckedIOException("Mutation log " + file + " is unusable", error);
+        }
+    }
+
+    private static byte[][] encode(String[] terms) {
+        byte[][] encoded = new byte[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            encoded[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * Writes one record of already encoded terms to the buffer. Must be called holding this.
+     */
+    private void putRecord(byte operation, byte[][] terms) {
+        int payloadLength = 2;
+        for (byte[] term : terms) {
+            payloadLength += Integer.BYTES + term.length;
+        }
+        ensureCapacity(RECORD_HEADER_SIZE + payloadLength);
+
+        int start = pending.position();
+        pending.putInt(payloadLength);
+        pending.putInt(0); // checksum, filled in below
+        pending.put(operation);
+        pending.put((byte) terms.length);
+        for (byte[] term : terms) {
+            pending.putInt(term.length);
+            pending.put(term);
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(pending.array(), start + RECORD_HEADER_SIZE, payloadLength);
+        pending.putInt(start + Integer.BYTES, (int) checksum.getValue());
+    }
+
+    /**
+     * Makes the record with the specified sequence number durable, as configured. With a sync
+     * interval of 0 this waits until the record has been written and synced; otherwise it only
+     * syncs when the buffer has grown past its limit.
+     *
+     * @param sequence the sequence number returned by append
+     * @throws UncheckedIOException if the log cannot be written
+     */
+    void awaitDurable(long sequence) {
+        if (syncIntervalMillis > 0) {
+            synchronized (this) {
+                if (pending.position() < MAX_PENDING_BYTES) {
+                    return;
+                }
+            }
+        }
+        if (syncedSequence >= sequence) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing mutation log " + file, e);
+        }
+    }
+
+    /**
+     * Returns the number of records appended since the log was last truncated.
+     *
+     * @return the number of records since the last checkpoint
+     */
+    synchronized long getRecordsSinceCheckpoint() {
+        return recordsSinceCheckpoint;
+    }
+
+    /**
+     * Discards every record, after a checkpoint snapshot has made them redundant. The caller must
+     * keep mutations from being appended while the log is truncated.
+     *
+     * @throws IOException if the log cannot be truncated
+     */
+    void truncate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                pending.clear();
+                recordsSinceCheckpoint = 0;
+                syncedSequence = appendedSequence;
+            }
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Moves every record logged so far to a sealed file and continues the log in an empty one, so
+     * a checkpoint of the graph as it is now can be written while mutations go on being logged.
+     * Once the checkpoint is in place, the sealed file is redundant and can be deleted; until then
+     * recovery replays it before the log. If the sealed file of an earlier checkpoint that never
+     * completed is still there, the records are appended to it. The caller must keep mutations
+     * from being appended during the rotation.
+     *
+     * @param sealedFile the file to move the records to
+     * @throws IOException if the records cannot be moved; the log then continues in its old file
+     */
+    void rotate(Path sealedFile) throws IOException {
+        synchronized (syncLock) {
+            sync();
+            channel.close();
+            boolean sealed = false;
+            try {
+                if (Files.exists(sealedFile)) {
+                    try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                         FileChannel target = FileChannel.open(sealedFile, StandardOpenOption.WRITE,
+                                 StandardOpenOption.APPEND)) {
+                        long size = source.size();
+                        for (long position = 0; position < size; ) {
+                            position += source.transferTo(position, size - position, target);
+                        }
+                        target.force(true);
+                    }
+                } else {
+                    Files.move(file, sealedFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+                sealed = true;
+            } finally {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                if (sealed) {
+                    channel.truncate(0);
+                    channel.force(true);
+                }
+                channel.position(channel.size());
+            }
+            synchronized (this) {
+                recordsSinceCheckpoint = 0;
+            }
+        }
+    }
+
+    /**
+     * Syncs any buffered records and closes the log.
+     *
+     * @throws IOException if the buffered records cannot be written
+     */
+    void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        synchronized (syncLock) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Writes every buffered record to the file and forces it to disk. Records appended while a
+     * sync is in progress are picked up by the next one.
+     */
+    private void sync() throws IOException {
+        synchronized (syncLock) {
+            ByteBuffer batch;
+            long batchSequence;
+            synchronized (this) {
+                if (syncedSequence >= appendedSequence) {
+                    return;
+                }
+                batch = pending.flip();
+                batchSequence = appendedSequence;
+                pending = ByteBuffer.allocate(64 * 1024);
+            }
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            syncedSequence = batchSequence;
+        }
+    }
+
+    private void backgroundSync() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // Reported to the next writer, since there is no caller to throw to
+            failure = e;
+        }
+    }
+
+    private void ensureCapacity(int recordLength) {
+        if (pending.remaining() < recordLength) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordLength));
+            larger.put(pending.flip());
+            pending = larger;
+        }
+    }
+
+    /**
+     * Receives the records of a log as it is replayed.
+     */
+    interface RecordHandler {
+        /**
+         * Applies one mutation record.
+         *
+         * @param operation the operation code
+         * @param terms     the identifiers the operation was called with
+         */
+        void apply(byte operation, String[] terms);
+    }
+
+    /**
+     * Reads the records of a log in order and passes each to the handler, stopping at the end of
+     * the file or at the first torn or corrupt record. The records of a batch are passed on only
+     * once its commit record has been read, without the framing records themselves; the records
+     * of a batch that is followed by another BEGIN_BATCH instead are skipped.
+     *
+     * @param file    the log file; a missing file has no records
+     * @param handler receives each record
+     * @return the length of the valid records and committed batches, where appending should resume
+     * @throws IOException if the log cannot be read
+     */
+    static long replay(Path file, RecordHandler handler) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long validLength = 0;
+        long readLength = 0;
+        List<byte[]> batch = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream stream = Channels.newInputStream(channel)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 20));
+            long fileLength = channel.size();
+            while (true) {
+                byte[] payload;
+                int storedChecksum;
+                try {
+                    int payloadLength = in.readInt();
+                    storedChecksum = in.readInt();
+                    if (payloadLength < 2 || readLength + RECORD_HEADER_SIZE + payloadLength > fileLength) {
+                        break;
+                    }
+                    payload = new byte[payloadLength];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32C checksum = new CRC32C();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != storedChecksum) {
+                    break;
+                }
+
+                readLength += RECORD_HEADER_SIZE + payload.length;
+
+                byte operation = payload[0];
+                if (operation == BEGIN_BATCH) {
+                    // A batch left open by an older log version is discarded, not merged into this one
+                    batch = new ArrayList<>();
+                } else if (operation == COMMIT_BATCH) {
+                    if (batch != null) {
+                        for (byte[] record : batch) {
+                            applyRecord(record, handler);
+                        }
+                    }
+                    batch = null;
+                    validLength = readLength;
+                } else if (batch != null) {
+                    batch.add(payload);
+                } else {
+                    applyRecord(payload, handler);
+                    validLength = readLength;
+                }
+            }
+        }
+        return validLength;
+    }
+
+    private static void applyRecord(byte[] payload, RecordHandler handler) {
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        byte operation = record.get();
+        String[] terms = new String[record.get()];
+        for (int i = 0; i < terms.length; i++) {
+            byte[] term = new byte[record.getInt()];
+            record.get(term);
+            terms[i] = new String(term, StandardCharsets.UTF_8);
+        }
+        handler.apply(operation, terms);
+    }
+}
@@ -6,6 +6,8 @@ package cscie97.asn1.knowledge.engine;
 public class Node {
     private final String identifier;
     private final long createDate;
+    // Computed on first use, as a Node is often materialized only to be returned
+    private int hash;
 
     /**
      * Constructs a Node with the specified identifier and sets the creation date
@@ -14,8 +16,19 @@ public class Node {
      * @param identifier the unique identifier for this Node
      */
     public Node(String identifier) {
+        this(identifier, System.currentTimeMillis() / 1000L); // Set to current UNIX timestamp
+    }
+
+    /**
+     * Constructs a Node with the specified identifier and creation date.
+     * Used when a Node is restored from a snapshot of the knowledge graph.
+     *
+     * @param identifier the unique identifier for this Node
+     * @param createDate the creation date as a UNIX timestamp (seconds since epoch)
+     */
+    Node(String identifier, long createDate) {
         this.identifier = identifier.trim();
-        this.createDate = System.currentTimeMillis() / 1000L; // Set to current UNIX timestamp
+        this.createDate = createDate;
     }
 
     /**
@@ -35,4 +48,29 @@ public class Node {
     public long getCreateDate() {
         return createDate;
     }
+
+    /**
+     * Two Nodes are equal when their identifiers are equal ignoring case, as the KnowledgeGraph
+     * matches identifiers. The creation date is not part of the identity of a Node.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Node)) {
+            return false;
+        }
+        return identifier.equalsIgnoreCase(((Node) other).identifier);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = CaseFoldingMap.fold(identifier).hashCode();
+            hash = h;
+        }
+        return h;
+    }
 }
\ No newline at end of file
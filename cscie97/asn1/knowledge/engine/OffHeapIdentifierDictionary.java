@@ -0,0 +1,368 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * IdentifierDictionary that keeps identifiers outside the Java heap. Each identifier is appended,
+ * as UTF-8 together with its folded form, to direct buffers allocated in large chunks; the heap
+ * only holds primitive arrays (the location, hash, and create date of each ID, and an open-
+ * addressing hash table of IDs), which the garbage collector never has to trace. Values are
+ * materialized from the stored identifier and create date on each call to get, so two calls for
+ * the same ID return equal but distinct objects.
+ *
+ * Readers find a new ID only after its bytes and array entries have been written: the hash table
+ * slot is written last, through an AtomicIntegerArray.
+ *
+ * The IDs of removed identifiers are reused by later interns, and their bytes are left in place
+ * until the chunks hold more removed bytes than live ones; the live entries are then copied into
+ * new chunks, which are published together with their locations, so a reader of the old chunks
+ * still sees consistent entries.
+ *
+ * @param <T> the type of value stored for each identifier (Node or Predicate)
+ */
+final class OffHeapIdentifierDictionary<T> implements IdentifierDictionary<T> {
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    // Table slot values besides ID + 1
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    // Stored in place of the folded length when the folded form equals the original
+    private static final int SAME_AS_ORIGINAL = -1;
+
+    /**
+     * Creates the value for an identifier restored from the dictionary.
+     *
+     * @param <T> the type of value
+     */
+    interface Materializer<T> {
+        /**
+         * Creates a value.
+         *
+         * @param identifier the identifier of the value
+         * @param createDate the creation date of the value
+         * @return the value
+         */
+        T create(String identifier, long createDate);
+    }
+
+    private final Function<T, String> identifierOf;
+    private final ToLongFunction<T> createDateOf;
+    private final Materializer<T> materializer;
+
+    // Replaced, never resized in place, so readers always see fully populated arrays
+    private volatile Entries entries;
+    private volatile int[] hashesById;
+    private volatile long[] createDatesById;
+    private volatile AtomicIntegerArray table;
+
+    // Writer state
+    private int currentChunk;
+    private int nextId;
+    private int usedSlots;
+    private int liveCount;
+    // IDs of removed identifiers, reused by intern before nextId grows
+    private int[] freeIds;
+    private int freeCount;
+    // Bytes of the entries of interned and of removed identifiers
+    private long liveBytes;
+    private long deadBytes;
+
+    /**
+     * Constructs an empty dictionary.
+     *
+     * @param identifierOf returns the identifier of a value, which is what gets stored
+     * @param createDateOf returns the creation date of a value
+     * @param materializer recreates a value from its stored identifier and creation date
+     */
+    OffHeapIdentifierDictionary(Function<T, String> identifierOf, ToLongFunction<T> createDateOf,
+            Materializer<T> materializer) {
+        this.identifierOf = identifierOf;
+        this.createDateOf = createDateOf;
+        this.materializer = materializer;
+        clear();
+    }
+
+    @Override
+    public int lookup(String identifier) {
+        String folded = CaseFoldingMap.fold(identifier);
+        byte[] foldedBytes = folded.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(folded);
+        AtomicIntegerArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = slots.get(i);
+            if (entry == EMPTY) {
+                return NOT_FOUND;
+            }
+            if (entry != REMOVED && hashesById[entry - 1] == hash && foldedEquals(entry - 1, foldedBytes)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    @Override
+    public int intern(String identifier, Function<String, T> factory) {
+        int existing = lookup(identifier);
+        if (existing != NOT_FOUND) {
+            return existing;
+        }
+        String folded = CaseFoldingMap.fold(identifier);
+        T value = factory.apply(identifier);
+        byte[] original = identifierOf.apply(value).getBytes(StandardCharsets.UTF_8);
+        byte[] foldedBytes = folded.getBytes(StandardCharsets.UTF_8);
+        boolean sameFolded = Arrays.equals(original, foldedBytes);
+
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == hashesById.length) {
+                int capacity = hashesById.length * 2;
+                entries = new Entries(entries.chunks, Arrays.copyOf(entries.locationsById, capacity));
+                hashesById = Arrays.copyOf(hashesById, capacity);
+                createDatesById = Arrays.copyOf(createDatesById, capacity);
+            }
+        }
+        long location = append(original, sameFolded ? null : foldedBytes);
+        entries.locationsById[id] = location;
+        hashesById[id] = hash(folded);
+        createDatesById[id] = createDateOf.applyAsLong(value);
+
+        if ((usedSlots + 1) * 2 > table.length()) {
+            rehash(liveCount * 4 > table.length() ? table.length() * 2 : table.length());
+        }
+        insertSlot(id);
+        usedSlots++;
+        liveCount++;
+        return id;
+    }
+
+    @Override
+    public T get(int id) {
+        Entries current = entries;
+        long location = current.locationsById[id];
+        ByteBuffer chunk = current.chunks[(int) (location >>> 32)];
+        int offset = (int) location;
+        byte[] bytes = new byte[chunk.getInt(offset)];
+        chunk.get(offset + Integer.BYTES, bytes);
+        return materializer.create(new String(bytes, StandardCharsets.UTF_8), createDatesById[id]);
+    }
+
+    @Override
+    public void remove(String identifier) {
+        int id = lookup(identifier);
+        if (id == NOT_FOUND) {
+            return;
+        }
+        AtomicIntegerArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = hashesById[id] & mask; ; i = (i + 1) & mask) {
+            if (slots.get(i) == id + 1) {
+                // The bytes stay in their chunk, so a reader holding the ID can still get its value
+                slots.set(i, REMOVED);
+                liveCount--;
+                if (freeCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+                }
+                freeIds[freeCount++] = id;
+                long location = entries.locationsById[id];
+                int length = entryLength(entries.chunks[(int) (location >>> 32)], (int) location);
+                liveBytes -= length;
+                deadBytes += length;
+                if (deadBytes > CHUNK_SIZE && deadBytes > liveBytes) {
+                    compact();
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int[] ids() {
+        AtomicIntegerArray slots = table;
+        int[] ids = new int[liveCount];
+        int count = 0;
+        for (int i = 0; i < slots.length() && count < ids.length; i++) {
+            int entry = slots.get(i);
+            if (entry != EMPTY && entry != REMOVED) {
+                ids[count++] = entry - 1;
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    @Override
+    public void clear() {
+        entries = new Entries(new ByteBuffer[] {ByteBuffer.allocateDirect(CHUNK_SIZE)}, new long[16]);
+        hashesById = new int[16];
+        createDatesById = new long[16];
+        table = new AtomicIntegerArray(32);
+        currentChunk = 0;
+        nextId = 0;
+        usedSlots = 0;
+        liveCount = 0;
+        freeIds = new int[0];
+        freeCount = 0;
+        liveBytes = 0;
+        deadBytes = 0;
+    }
+
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * Appends an entry to the current chunk, starting a new chunk if it does not fit.
+     *
+     * @return the location of the entry: the chunk index in the high 32 bits, the offset in the low
+     */
+    private long append(byte[] original, byte[] folded) {
+        int length = 2 * Integer.BYTES + original.length + (folded == null ? 0 : folded.length);
+        Entries current = entries;
+        ByteBuffer chunk = current.chunks[currentChunk];
+        if (chunk.remaining() < length) {
+            ByteBuffer[] grown = Arrays.copyOf(current.chunks, current.chunks.length + 1);
+            grown[grown.length - 1] = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+            entries = new Entries(grown, current.locationsById);
+            currentChunk++;
+            chunk = grown[currentChunk];
+        }
+        liveBytes += length;
+        int offset = chunk.position();
+        chunk.putInt(original.length).put(original);
+        if (folded == null) {
+            chunk.putInt(SAME_AS_ORIGINAL);
+        } else {
+            chunk.putInt(folded.length).put(folded);
+        }
+        return ((long) currentChunk << 32) | offset;
+    }
+
+    /**
+     * Returns whether the folded form stored for the ID equals the specified bytes.
+     */
+    private boolean foldedEquals(int id, byte[] foldedBytes) {
+        Entries current = entries;
+        long location = current.locationsById[id];
+        ByteBuffer chunk = current.chunks[(int) (location >>> 32)];
+        int offset = (int) location;
+        int originalLength = chunk.getInt(offset);
+        int foldedLength = chunk.getInt(offset + Integer.BYTES + originalLength);
+        int start;
+        if (foldedLength == SAME_AS_ORIGINAL) {
+            foldedLength = originalLength;
+            start = offset + Integer.BYTES;
+        } else {
+            start = offset + 2 * Integer.BYTES + originalLength;
+        }
+        if (foldedLength != foldedBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < foldedLength; i++) {
+            if (chunk.get(start + i) != foldedBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length in bytes of the entry at an offset of a chunk.
+     */
+    private static int entryLength(ByteBuffer chunk, int offset) {
+        int originalLength = chunk.getInt(offset);
+        int foldedLength = chunk.getInt(offset + Integer.BYTES + originalLength);
+        return 2 * Integer.BYTES + originalLength + (foldedLength == SAME_AS_ORIGINAL ? 0 : foldedLength);
+    }
+
+    /**
+     * Copies the entries of the interned identifiers into new chunks, dropping the bytes of
+     * removed ones. The locations of removed IDs point at the start of the first chunk, so a
+     * reader still holding one reads some entry instead of failing, and is retried.
+     */
+    private void compact() {
+        Entries old = entries;
+        long[] locations = new long[old.locationsById.length];
+        List<ByteBuffer> chunks = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        chunks.add(chunk);
+        for (int id : ids()) {
+            long location = old.locationsById[id];
+            ByteBuffer source = old.chunks[(int) (location >>> 32)];
+            int offset = (int) location;
+            int length = entryLength(source, offset);
+            if (chunk.remaining() < length) {
+                chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+                chunks.add(chunk);
+            }
+            locations[id] = ((long) (chunks.size() - 1) << 32) | chunk.position();
+            chunk.put(chunk.position(), source, offset, length);
+            chunk.position(chunk.position() + length);
+        }
+        entries = new Entries(chunks.toArray(new ByteBuffer[0]), locations);
+        currentChunk = chunks.size() - 1;
+        deadBytes = 0;
+    }
+
+    private void insertSlot(int id) {
+        AtomicIntegerArray slots = table;
+        int mask = slots.length() - 1;
+        int i = hashesById[id] & mask;
+        while (slots.get(i) != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        slots.set(i, id + 1);
+    }
+
+    /**
+     * Rebuilds the hash table with the specified capacity, dropping removed slots.
+     */
+    private void rehash(int capacity) {
+        AtomicIntegerArray old = table;
+        AtomicIntegerArray rebuilt = new AtomicIntegerArray(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            int entry = old.get(i);
+            if (entry == EMPTY || entry == REMOVED) {
+                continue;
+            }
+            int slot = hashesById[entry - 1] & mask;
+            while (rebuilt.get(slot) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            rebuilt.set(slot, entry);
+        }
+        table = rebuilt;
+        usedSlots = liveCount;
+    }
+
+    private static int hash(String folded) {
+        int h = folded.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The chunks holding the entries and the location of each ID's entry in them. Compaction
+     * moves entries, so both are published together and a reader never combines a location with
+     * the wrong chunks. Locations of new IDs are written in place, before the IDs are published.
+     */
+    private static final class Entries {
+        final ByteBuffer[] chunks;
+        final long[] locationsById;
+
+        Entries(ByteBuffer[] chunks, long[] locationsById) {
+            this.chunks = chunks;
+            this.locationsById = locationsById;
+        }
+    }
+}
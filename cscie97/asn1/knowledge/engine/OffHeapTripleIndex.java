@@ -0,0 +1,381 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * TripleIndex that keeps the bulk of the SPO, POS, and OSP permutation indexes outside the Java
+ * heap. Each permutation is a run of fixed-size records sorted in that permutation's order, stored
+ * in a direct buffer and searched by binary search. Recent changes go to a small on-heap delta:
+ * skip lists of added triples and of run triples that were removed. Scans merge the run with the
+ * delta. Once the delta grows past an eighth of the index, the runs and the delta are merged into
+ * new runs, so the heap holds only recently changed triples and GC pause times do not grow with
+ * the size of the graph.
+ *
+ * The runs, delta, and removed set of one merge cycle form a generation. Only the runs are
+ * immutable: the delta and removed skip lists are concurrent sets that every add and remove of
+ * the cycle changes in place, so a scan sees those changes as they happen, with the weak
+ * consistency of ConcurrentSkipListSet. A merge publishes a new generation with new runs and
+ * empty delta sets, and scans keep reading the runs of the generation they started with.
+ */
+final class OffHeapTripleIndex extends TripleIndex {
+
+    // Bytes per run record: three IDs in the permutation's order, then the create date
+    private static final int RECORD_SIZE = 3 * Integer.BYTES + Long.BYTES;
+    private static final int MIN_MERGE_THRESHOLD = 64 * 1024;
+
+    private static final int SPO = 0;
+    private static final int POS = 1;
+    private static final int OSP = 2;
+
+    private volatile Generation generation = new Generation(Run.EMPTY, Run.EMPTY, Run.EMPTY);
+
+    // Writer state: the number of triples in the delta of the current generation
+    private int addedCount;
+    private int removedCount;
+
+    @Override
+    EncodedTriple get(int subject, int predicate, int object) {
+        Generation current = generation;
+        EncodedTriple key = EncodedTriple.pattern(subject, predicate, object);
+        EncodedTriple added = current.addedSpo.ceiling(key);
+        if (key.equals(added)) {
+            return added;
+        }
+        int index = current.spo.find(subject, predicate, object);
+        if (index >= 0 && !current.removed.contains(key)) {
+            return current.spo.triple(index, SPO);
+        }
+        return null;
+    }
+
+    @Override
+    protected void addToIndexes(EncodedTriple triple) {
+        Generation current = generation;
+        current.addedSpo.add(triple);
+        current.addedPos.add(triple);
+        current.addedOsp.add(triple);
+        addedCount++;
+        mergeIfDue();
+    }
+
+    @Override
+    protected boolean removeFromIndexes(EncodedTriple triple) {
+        Generation current = generation;
+        if (current.addedSpo.remove(triple)) {
+            current.addedPos.remove(triple);
+            current.addedOsp.remove(triple);
+            addedCount--;
+            return true;
+        }
+        if (current.spo.find(triple.subject, triple.predicate, triple.object) >= 0 && current.removed.add(triple)) {
+            removedCount++;
+            mergeIfDue();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void clearIndexes() {
+        generation = new Generation(Run.EMPTY, Run.EMPTY, Run.EMPTY);
+        addedCount = 0;
+        removedCount = 0;
+    }
+
+    @Override
+    Collection<EncodedTriple> scan(int subject, int predicate, int object) {
+        boolean s = subject != EncodedTriple.WILDCARD;
+        boolean p = predicate != EncodedTriple.WILDCARD;
+        boolean o = object != EncodedTriple.WILDCARD;
+        Generation current = generation;
+
+        if (s && p && o) {
+            EncodedTriple found = get(subject, predicate, object);
+            return found == null ? Collections.emptySet() : Collections.singleton(found);
+        } else if (s && p) {
+            return range(current, SPO, subject, predicate, MIN_ID, subject, predicate, MAX_ID);
+        } else if (s && o) {
+            return range(current, OSP, subject, MIN_ID, object, subject, MAX_ID, object);
+        } else if (s) {
+            return range(current, SPO, subject, MIN_ID, MIN_ID, subject, MAX_ID, MAX_ID);
+        } else if (p && o) {
+            return range(current, POS, MIN_ID, predicate, object, MAX_ID, predicate, object);
+        } else if (p) {
+            return range(current, POS, MIN_ID, predicate, MIN_ID, MAX_ID, predicate, MAX_ID);
+        } else if (o) {
+            return range(current, OSP, MIN_ID, MIN_ID, object, MAX_ID, MAX_ID, object);
+        }
+        return range(current, SPO, MIN_ID, MIN_ID, MIN_ID, MAX_ID, MAX_ID, MAX_ID);
+    }
+
+    /**
+     * Returns the triples of one permutation between two patterns, inclusive, merging the run
+     * with the delta.
+     */
+    private static Collection<EncodedTriple> range(Generation current, int permutation,
+            int fromSubject, int fromPredicate, int fromObject,
+            int toSubject, int toPredicate, int toObject) {
+        EncodedTriple from = EncodedTriple.pattern(fromSubject, fromPredicate, fromObject);
+        EncodedTriple to = EncodedTriple.pattern(toSubject, toPredicate, toObject);
+        Run run = current.run(permutation);
+        int start = run.lowerBound(from, permutation);
+        int end = run.upperBound(to, permutation);
+        NavigableSet<EncodedTriple> added = current.added(permutation).subSet(from, true, to, true);
+        return new AbstractCollection<EncodedTriple>() {
+            @Override
+            public Iterator<EncodedTriple> iterator() {
+                return new MergingIterator(run, start, end, permutation, added.iterator(), current.removed);
+            }
+
+            @Override
+            public int size() {
+                int count = 0;
+                for (Iterator<EncodedTriple> it = iterator(); it.hasNext(); it.next()) {
+                    count++;
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Merges the delta into new runs once it has grown past an eighth of the runs.
+     */
+    private void mergeIfDue() {
+        Generation current = generation;
+        int deltaCount = addedCount + removedCount;
+        if (deltaCount < Math.max(MIN_MERGE_THRESHOLD, current.spo.count / 8)) {
+            return;
+        }
+        long count = (long) current.spo.count - removedCount + addedCount;
+        if (count * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Off-heap triple index is limited to "
+                    + (Integer.MAX_VALUE / RECORD_SIZE) + " triples");
+        }
+        generation = new Generation(
+                merge(current, SPO, (int) count),
+                merge(current, POS, (int) count),
+                merge(current, OSP, (int) count));
+        addedCount = 0;
+        removedCount = 0;
+    }
+
+    private static Run merge(Generation current, int permutation, int count) {
+        ByteBuffer records = ByteBuffer.allocateDirect(count * RECORD_SIZE);
+        Run run = current.run(permutation);
+        Iterator<EncodedTriple> merged = new MergingIterator(run, 0, run.count, permutation,
+                current.added(permutation).iterator(), current.removed);
+        int written = 0;
+        while (merged.hasNext()) {
+            EncodedTriple triple = merged.next();
+            int[] key = key(triple.subject, triple.predicate, triple.object, permutation);
+            int offset = written++ * RECORD_SIZE;
+            records.putInt(offset, key[0]);
+            records.putInt(offset + Integer.BYTES, key[1]);
+            records.putInt(offset + 2 * Integer.BYTES, key[2]);
+            records.putLong(offset + 3 * Integer.BYTES, triple.createDate);
+        }
+        return new Run(records, written);
+    }
+
+    /**
+     * Returns the IDs of a triple in the order of the permutation.
+     */
+    private static int[] key(int subject, int predicate, int object, int permutation) {
+        switch (permutation) {
+            case SPO:
+                return new int[] {subject, predicate, object};
+            case POS:
+                return new int[] {predicate, object, subject};
+            default:
+                return new int[] {object, subject, predicate};
+        }
+    }
+
+    private static Comparator<EncodedTriple> order(int permutation) {
+        return permutation == SPO ? SPO_ORDER : permutation == POS ? POS_ORDER : OSP_ORDER;
+    }
+
+    /**
+     * The runs and delta of one merge cycle.
+     */
+    private static final class Generation {
+        final Run spo;
+        final Run pos;
+        final Run osp;
+        final NavigableSet<EncodedTriple> addedSpo = new ConcurrentSkipListSet<>(SPO_ORDER);
+        final NavigableSet<EncodedTriple> addedPos = new ConcurrentSkipListSet<>(POS_ORDER);
+        final NavigableSet<EncodedTriple> addedOsp = new ConcurrentSkipListSet<>(OSP_ORDER);
+        // Triples of the runs that have been removed since the runs were built
+        final NavigableSet<EncodedTriple> removed = new ConcurrentSkipListSet<>(SPO_ORDER);
+
+        Generation(Run spo, Run pos, Run osp) {
+            this.spo = spo;
+            this.pos = pos;
+            this.osp = osp;
+        }
+
+        Run run(int permutation) {
+            return permutation == SPO ? spo : permutation == POS ? pos : osp;
+        }
+
+        NavigableSet<EncodedTriple> added(int permutation) {
+            return permutation == SPO ? addedSpo : permutation == POS ? addedPos : addedOsp;
+        }
+    }
+
+    /**
+     * An immutable run of records sorted in the order of one permutation, in a direct buffer.
+     */
+    private static final class Run {
+        static final Run EMPTY = new Run(ByteBuffer.allocateDirect(0), 0);
+
+        final ByteBuffer records;
+        final int count;
+
+        Run(ByteBuffer records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+
+        /**
+         * Returns the triple stored in the record at the index.
+         */
+        EncodedTriple triple(int index, int permutation) {
+            int offset = index * RECORD_SIZE;
+            int a = records.getInt(offset);
+            int b = records.getInt(offset + Integer.BYTES);
+            int c = records.getInt(offset + 2 * Integer.BYTES);
+            long createDate = records.getLong(offset + 3 * Integer.BYTES);
+            switch (permutation) {
+                case SPO:
+                    return new EncodedTriple(a, b, c, createDate);
+                case POS:
+                    return new EncodedTriple(c, a, b, createDate);
+                default:
+                    return new EncodedTriple(b, c, a, createDate);
+            }
+        }
+
+        /**
+         * Returns the index of the SPO record with the specified IDs, or -1. Must be called on an
+         * SPO run.
+         */
+        int find(int subject, int predicate, int object) {
+            int index = lowerBound(EncodedTriple.pattern(subject, predicate, object), SPO);
+            return index < count && compare(index, subject, predicate, object) == 0 ? index : -1;
+        }
+
+        /**
+         * Returns the index of the first record not before the pattern.
+         */
+        int lowerBound(EncodedTriple pattern, int permutation) {
+            int[] key = key(pattern.subject, pattern.predicate, pattern.object, permutation);
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(middle, key[0], key[1], key[2]) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns the index of the first record after the pattern.
+         */
+        int upperBound(EncodedTriple pattern, int permutation) {
+            int[] key = key(pattern.subject, pattern.predicate, pattern.object, permutation);
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(middle, key[0], key[1], key[2]) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int compare(int index, int a, int b, int c) {
+            int offset = index * RECORD_SIZE;
+            int result = Integer.compare(records.getInt(offset), a);
+            if (result != 0) return result;
+            result = Integer.compare(records.getInt(offset + Integer.BYTES), b);
+            return result != 0 ? result : Integer.compare(records.getInt(offset + 2 * Integer.BYTES), c);
+        }
+    }
+
+    /**
+     * Iterates a range of a run and a range of the added delta in permutation order, skipping run
+     * triples that have been removed.
+     */
+    private static final class MergingIterator implements Iterator<EncodedTriple> {
+        private final Run run;
+        private final int end;
+        private final int permutation;
+        private final Iterator<EncodedTriple> added;
+        private final NavigableSet<EncodedTriple> removed;
+        private final Comparator<EncodedTriple> order;
+        private int index;
+        private EncodedTriple nextFromRun;
+        private EncodedTriple nextAdded;
+
+        MergingIterator(Run run, int start, int end, int permutation, Iterator<EncodedTriple> added,
+                NavigableSet<EncodedTriple> removed) {
+            this.run = run;
+            this.index = start;
+            this.end = end;
+            this.permutation = permutation;
+            this.added = added;
+            this.removed = removed;
+            this.order = order(permutation);
+            advanceRun();
+            nextAdded = added.hasNext() ? added.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextFromRun != null || nextAdded != null;
+        }
+
+        @Override
+        public EncodedTriple next() {
+            EncodedTriple next;
+            if (nextFromRun == null && nextAdded == null) {
+                throw new NoSuchElementException();
+            } else if (nextAdded == null || (nextFromRun != null && order.compare(nextFromRun, nextAdded) < 0)) {
+                next = nextFromRun;
+                advanceRun();
+            } else {
+                next = nextAdded;
+                nextAdded = added.hasNext() ? added.next() : null;
+            }
+            return next;
+        }
+
+        private void advanceRun() {
+            nextFromRun = null;
+            while (index < end) {
+                EncodedTriple candidate = run.triple(index++, permutation);
+                if (removed.isEmpty() || !removed.contains(candidate)) {
+                    nextFromRun = candidate;
+                    return;
+                }
+            }
+        }
+    }
+}
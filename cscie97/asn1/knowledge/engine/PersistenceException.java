@@ -0,0 +1,26 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Exception thrown to indicate an error occurred while saving or loading the knowledge graph.
+ */
+public class PersistenceException extends Exception {
+
+    /**
+     * Constructs a new PersistenceException with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public PersistenceException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new PersistenceException with the specified detail message and cause.
+     *
+     * @param message the detail message
+     * @param cause   the exception that caused this one
+     */
+    public PersistenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -6,6 +6,8 @@ package cscie97.asn1.knowledge.engine;
 public class Predicate {
     private final String identifier;
     private final long createDate;
+    // Computed on first use, as a Predicate is often materialized only to be returned
+    private int hash;
 
     /**
      * Constructs a Predicate with the specified identifier and sets the creation date
@@ -14,8 +16,19 @@ public class Predicate {
      * @param identifier the unique identifier for this Predicate
      */
     public Predicate(String identifier) {
+        this(identifier, System.currentTimeMillis() / 1000L); // Set to current UNIX timestamp
+    }
+
+    /**
+     * Constructs a Predicate with the specified identifier and creation date.
+     * Used when a Predicate is restored from a snapshot of the knowledge graph.
+     *
+     * @param identifier the unique identifier for this Predicate
+     * @param createDate the creation date as a UNIX timestamp (seconds since epoch)
+     */
+    Predicate(String identifier, long createDate) {
         this.identifier = identifier.trim();
-        this.createDate = System.currentTimeMillis() / 1000L; // Set to current UNIX timestamp
+        this.createDate = createDate;
     }
 
     /**
@@ -35,4 +48,29 @@ public class Predicate {
     public long getCreateDate() {
         return createDate;
     }
+
+    /**
+     * Two Predicates are equal when their identifiers are equal ignoring case, as the KnowledgeGraph
+     * matches identifiers. The creation date is not part of the identity of a Predicate.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Predicate)) {
+            return false;
+        }
+        return identifier.equalsIgnoreCase(((Predicate) other).identifier);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = CaseFoldingMap.fold(identifier).hashCode();
+            hash = h;
+        }
+        return h;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Snapshot of the cardinality statistics of one Predicate in the KnowledgeGraph.
+ */
+public class PredicateStatistics {
+    private final String predicate;
+    private final int tripleCount;
+    private final int distinctSubjects;
+    private final int distinctObjects;
+
+    /**
+     * Constructs a PredicateStatistics snapshot.
+     *
+     * @param predicate        the identifier of the Predicate
+     * @param tripleCount      the number of triples that use the Predicate
+     * @param distinctSubjects the number of distinct subjects of those triples
+     * @param distinctObjects  the number of distinct objects of those triples
+     */
+    public PredicateStatistics(String predicate, int tripleCount, int distinctSubjects, int distinctObjects) {
+        this.predicate = predicate;
+        this.tripleCount = tripleCount;
+        this.distinctSubjects = distinctSubjects;
+        this.distinctObjects = distinctObjects;
+    }
+
+    /**
+     * Returns the identifier of the Predicate.
+     *
+     * @return the Predicate identifier
+     */
+    public String getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Returns the number of triples that use the Predicate.
+     *
+     * @return the number of triples
+     */
+    public int getTripleCount() {
+        return tripleCount;
+    }
+
+    /**
+     * Returns the number of distinct subjects of the triples that use the Predicate.
+     *
+     * @return the number of distinct subjects
+     */
+    public int getDistinctSubjects() {
+        return distinctSubjects;
+    }
+
+    /**
+     * Returns the number of distinct objects of the triples that use the Predicate.
+     *
+     * @return the number of distinct objects
+     */
+    public int getDistinctObjects() {
+        return distinctObjects;
+    }
+
+    /**
+     * Returns the average number of triples per distinct subject, which estimates how many
+     * results a query with a bound subject and this Predicate returns.
+     *
+     * @return the average number of objects per subject, or 0 if the Predicate is unused
+     */
+    public double getAverageObjectsPerSubject() {
+        return distinctSubjects == 0 ? 0.0 : (double) tripleCount / distinctSubjects;
+    }
+
+    /**
+     * Returns the average number of triples per distinct object, which estimates how many
+     * results a query with a bound object and this Predicate returns.
+     *
+     * @return the average number of subjects per object, or 0 if the Predicate is unused
+     */
+    public double getAverageSubjectsPerObject() {
+        return distinctObjects == 0 ? 0.0 : (double) tripleCount / distinctObjects;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PredicateStatistics{predicate=%s, triples=%d, distinctSubjects=%d, distinctObjects=%d}",
+                predicate, tripleCount, distinctSubjects, distinctObjects);
+    }
+}
@@ -0,0 +1,171 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded least-recently-used cache of executeQuery results, keyed by the encoded query pattern.
+ * The cache is split into segments, each an access-ordered LinkedHashMap guarded by its own lock,
+ * so concurrent readers rarely contend on the same lock.
+ *
+ * A result is only stored if the graph has not been modified since the result was computed.
+ * Together with the graph invalidating the affected patterns after each modification, this means
+ * the cache never keeps a result that misses a committed change.
+ */
+final class QueryCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final int capacity;
+    private final int maxResultSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructs a cache.
+     *
+     * @param capacity      the maximum number of results kept; 0 disables the cache
+     * @param maxResultSize results with more Triples than this are not cached
+     */
+    QueryCache(int capacity, int maxResultSize) {
+        this.capacity = capacity;
+        this.maxResultSize = maxResultSize;
+        int segmentCapacity = (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Returns the cached result for the pattern, or null on a miss.
+     *
+     * @param pattern the encoded query pattern
+     * @return the cached result, or null
+     */
+    Set<Triple> get(EncodedTriple pattern) {
+        if (capacity == 0) {
+            return null;
+        }
+        Segment segment = segmentFor(pattern);
+        Set<Triple> result;
+        synchronized (segment) {
+            result = segment.get(pattern);
+        }
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches a result computed at the specified graph version, unless the graph has been
+     * modified since.
+     *
+     * @param pattern         the encoded query pattern
+     * @param result          the query result
+     * @param computedVersion the graph version read before the result was computed
+     * @param currentVersion  supplies the current graph version
+     */
+    void put(EncodedTriple pattern, Set<Triple> result, long computedVersion, LongSupplier currentVersion) {
+        if (capacity == 0 || result.size() > maxResultSize) {
+            return;
+        }
+        Segment segment = segmentFor(pattern);
+        synchronized (segment) {
+            if (currentVersion.getAsLong() == computedVersion) {
+                segment.put(pattern, result);
+            }
+        }
+    }
+
+    /**
+     * Removes the results of the eight query patterns that the specified triple matches, which are
+     * the only results that adding or removing the triple can change.
+     *
+     * @param triple the triple that was added or removed
+     */
+    void invalidate(EncodedTriple triple) {
+        if (capacity == 0) {
+            return;
+        }
+        int any = EncodedTriple.WILDCARD;
+        int[] subjects = {triple.subject, any};
+        int[] predicates = {triple.predicate, any};
+        int[] objects = {triple.object, any};
+        for (int s : subjects) {
+            for (int p : predicates) {
+                for (int o : objects) {
+                    EncodedTriple pattern = EncodedTriple.pattern(s, p, o);
+                    Segment segment = segmentFor(pattern);
+                    synchronized (segment) {
+                        if (segment.remove(pattern) != null) {
+                            invalidations.increment();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every cached result.
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache counters.
+     *
+     * @return the cache statistics
+     */
+    QueryCacheStatistics getStatistics() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return new QueryCacheStatistics(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(),
+                size, capacity);
+    }
+
+    private Segment segmentFor(EncodedTriple pattern) {
+        int hash = pattern.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * One access-ordered LRU segment of the cache.
+     */
+    private class Segment extends LinkedHashMap<EncodedTriple, Set<Triple>> {
+        private final int segmentCapacity;
+
+        Segment(int segmentCapacity) {
+            super(16, 0.75f, true);
+            this.segmentCapacity = segmentCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<EncodedTriple, Set<Triple>> eldest) {
+            if (size() > segmentCapacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
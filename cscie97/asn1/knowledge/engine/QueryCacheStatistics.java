@@ -0,0 +1,102 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Snapshot of the counters of the KnowledgeGraph query result cache.
+ */
+public class QueryCacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long invalidations;
+    private final int size;
+    private final int capacity;
+
+    /**
+     * Constructs a QueryCacheStatistics snapshot.
+     *
+     * @param hits          the number of queries answered from the cache
+     * @param misses        the number of queries that had to read the triple index
+     * @param evictions     the number of results evicted to stay within the capacity
+     * @param invalidations the number of results removed because a triple they match was added or removed
+     * @param size          the number of results currently cached
+     * @param capacity      the maximum number of results the cache keeps
+     */
+    public QueryCacheStatistics(long hits, long misses, long evictions, long invalidations, int size, int capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of queries that had to read the triple index.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of results evicted to stay within the capacity.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of results removed because a triple they match was added or removed.
+     *
+     * @return the number of invalidations
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the number of results currently cached.
+     *
+     * @return the number of cached results
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of results the cache keeps.
+     *
+     * @return the capacity of the cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryCacheStatistics{hits=%d, misses=%d, evictions=%d, invalidations=%d, size=%d, capacity=%d}",
+                hits, misses, evictions, invalidations, size, capacity);
+    }
+}
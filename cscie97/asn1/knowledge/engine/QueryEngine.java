@@ -1,69 +1,232 @@
 package cscie97.asn1.knowledge.engine;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.Set;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Provides methods for executing queries .
  */
 public class QueryEngine {
 
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    // Reused for every query, so queries are tokenized without intermediate allocation
+    private final TripleTokenizer tokenizer = new TripleTokenizer();
+
+    /* Results are written through a large buffer that is flushed once per query instead of
+       once per println, so a query with many results is not limited by unbuffered writes,
+       while the results of each query still appear as soon as the query completes.
+       */
+    private final PrintWriter out;
+    private final KnowledgeGraph knowledgeGraph;
+
+    /**
+     * Constructs a QueryEngine that prints query results to the terminal.
+     */
+    public QueryEngine() {
+        this(System.out);
+    }
+
+    /**
+     * Constructs a QueryEngine that queries the default knowledge graph and writes query results
+     * to the specified output stream.
+     *
+     * @param outputStream the stream the queries and their results are written to
+     */
+    public QueryEngine(OutputStream outputStream) {
+        this(KnowledgeGraph.getInstance(), outputStream);
+    }
+
+    /**
+     * Constructs a QueryEngine that queries the specified knowledge graph and writes query results
+     * to the specified output stream.
+     *
+     * @param knowledgeGraph the graph queries are executed against, for example a named graph
+     * @param outputStream   the stream the queries and their results are written to
+     */
+    public QueryEngine(KnowledgeGraph knowledgeGraph, OutputStream outputStream) {
+        this.knowledgeGraph = knowledgeGraph;
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputStream), OUTPUT_BUFFER_SIZE));
+    }
+
     /**
      * Executes a single query.
      * The query must be a string containing three whitespace-separated terms (subject, predicate, object)
      * and must end with a period ('.'). Wildcards can be represented by '?'.
-     * Prints the results to the terminal.
+     * Writes the results to the output of this QueryEngine as they are read from the knowledge graph.
+     *
+     * A query can also be a conjunction of several patterns separated by '.', using named variables
+     * such as ?x to join them, for example "?x plays_sport Hockey . ?x works_at ?y." For such a query
+     * one line is written per solution, binding each variable, for example "?x=Joe ?y=Starbucks".
+     * A conjunctive query without named variables writes "<true>" if all of its patterns match.
      *
      * @param query the query string to execute
      * @throws QueryEngineException if the query format is invalid
      */
     public void executeQuery(String query) throws QueryEngineException {
-        if(query == null || query.trim().isEmpty()) {
+        if(query == null) {
+            return;
+        }
+        try {
+            writeQueryResults(query, tokenizer, out);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Executes a single query and writes the query and its results to the output buffer.
+     *
+     * @param query     the query string to execute
+     * @param tokenizer the tokenizer to split the query with
+     * @param out       the buffer the query and its results are written to
+     * @throws QueryEngineException if the query format is invalid
+     */
+    private void writeQueryResults(String query, TripleTokenizer tokenizer, PrintWriter out)
+            throws QueryEngineException {
+
+        TripleTokenizer.Result result = tokenizer.tokenize(query);
+        if (result == TripleTokenizer.Result.BLANK) {
             // For a blank query, simply proceed to the next query
             return;
         }
 
-        if (query.trim().charAt(query.trim().length() - 1) != '.') {
+        if (result == TripleTokenizer.Result.MISSING_PERIOD) {
             throw new QueryEngineException(query, "Query must end with a '.'");
         }
 
         // Print out the query
-        System.out.println(query);
+        out.println(query);
 
-        query = query.trim();
-        query = query.substring(0, query.length() - 1);
+        String subject = null;
+        String predicate = null;
+        String object = null;
+        if (result == TripleTokenizer.Result.TRIPLE) {
+            subject = tokenizer.subject();
+            predicate = tokenizer.predicate();
+            object = tokenizer.object();
+        }
+        if (result != TripleTokenizer.Result.TRIPLE || TriplePattern.isVariable(subject)
+                || TriplePattern.isVariable(predicate) || TriplePattern.isVariable(object)) {
+            writeConjunctiveQueryResults(query, tokenizer.line(), out);
+            return;
+        }
+
+        Iterator<Triple> results = knowledgeGraph.queryStream(subject, predicate, object).iterator();
 
-        String[] parts = query.trim().split("\\s+");
-        if (parts.length != 3) {
-            throw new QueryEngineException(query, "Invalid query format");
+        if (!results.hasNext()) {
+            out.println("<null>");
+        } else {
+            while (results.hasNext()) {
+                out.println(results.next().getIdentifier());
+            }
         }
 
-        String subject = parts[0].trim();
-        String predicate = parts[1].trim();
-        String object = parts[2].trim();
+        out.println();
+    }
 
-        Set<Triple> results = KnowledgeGraph.getInstance().executeQuery(subject, predicate, object);
+    /**
+     * Executes a conjunctive query and writes one line per solution to the output buffer.
+     *
+     * @param query the query string, used in exception messages
+     * @param line  the query with surrounding whitespace removed, ending with '.'
+     * @param out   the buffer the solutions are written to
+     * @throws QueryEngineException if the query format is invalid
+     */
+    private void writeConjunctiveQueryResults(String query, String line, PrintWriter out)
+            throws QueryEngineException {
+        String body = line.substring(0, line.length() - 1);
+        List<TriplePattern> patterns = parseConjunctiveQuery(body);
+        if (patterns == null) {
+            throw new QueryEngineException(body, "Invalid query format");
+        }
 
-        if (results.isEmpty()) {
-            System.out.println("<null>");
-        } else {
-            for (Triple triple : results) {
-                System.out.println(triple.getIdentifier());
+        List<Map<String, String>> solutions;
+        try {
+            solutions = knowledgeGraph.executeConjunctiveQuery(patterns);
+        } catch (IllegalArgumentException e) {
+            throw new QueryEngineException(query, e.getMessage());
+        }
+
+        if (solutions.isEmpty()) {
+            out.println("<null>");
+        }
+        for (Map<String, String> solution : solutions) {
+            if (solution.isEmpty()) {
+                out.println("<true>");
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            for (Map.Entry<String, String> binding : solution.entrySet()) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(binding.getKey()).append('=').append(binding.getValue());
             }
+            out.println(text);
         }
 
-        System.out.println();
+        out.println();
     }
 
     /**
-     * Executes queries from a file, one per line.
+     * Splits the body of a conjunctive query into its patterns. Patterns are separated by a '.'
+     * that stands alone or ends a term, and each pattern must have exactly three terms.
+     *
+     * @param body the query without its final '.'
+     * @return the patterns of the query, or null if the query format is invalid
+     */
+    private static List<TriplePattern> parseConjunctiveQuery(String body) {
+        List<TriplePattern> patterns = new ArrayList<>();
+        List<String> terms = new ArrayList<>();
+        for (String term : body.trim().split("\\s+")) {
+            boolean endsPattern = term.endsWith(".");
+            if (endsPattern) {
+                term = term.substring(0, term.length() - 1);
+            }
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+            if (endsPattern || terms.size() > 3) {
+                if (terms.size() != 3) {
+                    return null;
+                }
+                patterns.add(new TriplePattern(terms.get(0), terms.get(1), terms.get(2)));
+                terms.clear();
+            }
+        }
+        if (!terms.isEmpty()) {
+            if (terms.size() != 3) {
+                return null;
+            }
+            patterns.add(new TriplePattern(terms.get(0), terms.get(1), terms.get(2)));
+        }
+        return patterns.isEmpty() ? null : patterns;
+    }
+
+    /**
+     * Executes queries from a file, one per line. The file is read as UTF-8, and may be
+     * gzip-compressed.
      *
      * @param fileName the name of the file containing queries
      * @throws QueryEngineException if an error occurs while reading the file
      */
     public void executeQueryFile(String fileName) throws QueryEngineException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+        try (BufferedReader reader = TextFileReader.open(fileName)) {
             String line;
             while ((line = reader.readLine()) != null) {
                 // Strip BOM character
@@ -78,4 +241,160 @@ public class QueryEngine {
             throw new QueryEngineException("N/A", "Error reading query file: " + fileName);
         }
     }
+
+    /**
+     * Reads the lines of a query file without executing them, decoding it exactly as
+     * executeQueryFile does: as UTF-8, and decompressed if it is gzip-compressed. Lets a caller
+     * that runs the queries elsewhere, such as a QueryClient, accept the same files.
+     *
+     * @param fileName the name of the file containing queries
+     * @return the lines of the file
+     * @throws QueryEngineException if the file cannot be read
+     */
+    public static List<String> readQueryFile(String fileName) throws QueryEngineException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = TextFileReader.open(fileName)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new QueryEngineException("N/A", "Error reading query file: " + fileName);
+        }
+        return lines;
+    }
+
+    /**
+     * Executes queries from a file, one per line, using all available processors.
+     *
+     * @param fileName the name of the file containing queries
+     * @throws QueryEngineException if an error occurs while reading the file
+     * @see #executeQueryFileParallel(String, int)
+     */
+    public void executeQueryFileParallel(String fileName) throws QueryEngineException {
+        executeQueryFileParallel(fileName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Executes queries from a file, one per line, evaluating them concurrently on a fork-join
+     * pool. Each query sees a consistent state of the knowledge graph: it runs optimistically and
+     * is evaluated again if an import or removal ran meanwhile, so writers are never held off for
+     * more than one query. Each query's output is buffered and written in the original query
+     * order, so the output, and the QueryEngineException reported for an invalid query, are the
+     * same as for executeQueryFile.
+     *
+     * @param fileName    the name of the file containing queries
+     * @param parallelism the number of threads used to evaluate queries
+     * @throws QueryEngineException if an error occurs while reading the file
+     */
+    public void executeQueryFileParallel(String fileName, int parallelism) throws QueryEngineException {
+        executeQueryFileParallel(fileName, parallelism, false);
+    }
+
+    /**
+     * Executes queries from a file like executeQueryFileParallel(String, int), optionally with
+     * every query seeing the same state of the knowledge graph. That holds off all imports and
+     * removals, including their mutation log appends and subscription deliveries, until the whole
+     * file has run, so it suits a graph that is not being written to.
+     *
+     * @param fileName    the name of the file containing queries
+     * @param parallelism the number of threads used to evaluate queries
+     * @param holdWrites  true to hold off writers for the whole file, false to let them run
+     *                    between queries
+     * @throws QueryEngineException if an error occurs while reading the file
+     */
+    public void executeQueryFileParallel(String fileName, int parallelism, boolean holdWrites)
+            throws QueryEngineException {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        ThreadLocal<TripleTokenizer> tokenizers = ThreadLocal.withInitial(TripleTokenizer::new);
+        if (holdWrites) {
+            knowledgeGraph.blockWrites();
+        }
+        try (BufferedReader reader = TextFileReader.open(fileName)) {
+            // Completed outputs wait here until every earlier query has been written, and the
+            // window bounds how many queries can run ahead of the one being written
+            int window = Math.max(2, parallelism * 64);
+            Deque<Future<QueryOutput>> inFlight = new ArrayDeque<>();
+            boolean endOfFile = false;
+            while (!endOfFile || !inFlight.isEmpty()) {
+                while (!endOfFile && inFlight.size() < window) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        endOfFile = true;
+                        break;
+                    }
+                    // Strip BOM character
+                    if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+                        line = line.substring(1);
+                    }
+                    String query = line;
+                    inFlight.addLast(pool.submit(() ->
+                            knowledgeGraph.readConsistently(() -> evaluateQuery(query, tokenizers.get()))));
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+
+                Future<QueryOutput> next = inFlight.removeFirst();
+                if (!next.isDone()) {
+                    // Let the output written so far through while waiting
+                    out.flush();
+                }
+                QueryOutput output = next.get();
+                out.write(output.text);
+                if (output.error != null) {
+                    throw output.error;
+                }
+            }
+        } catch (IOException | QueryEngineException e) {
+            throw new QueryEngineException("N/A", "Error reading query file: " + fileName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEngineException("N/A", "Interrupted while executing query file: " + fileName);
+        } catch (ExecutionException e) {
+            throw new QueryEngineException("N/A", "Error executing query file: " + fileName + ": " + e.getCause());
+        } finally {
+            if (holdWrites) {
+                knowledgeGraph.unblockWrites();
+            }
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    /**
+     * Executes a single query into a buffer of its own, so it can run on any thread.
+     *
+     * @param query     the query string to execute
+     * @param tokenizer the tokenizer of the calling thread
+     * @return the output of the query, and the exception it threw, if any
+     */
+    private QueryOutput evaluateQuery(String query, TripleTokenizer tokenizer) {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        QueryEngineException error = null;
+        try {
+            if (query != null) {
+                writeQueryResults(query, tokenizer, writer);
+            }
+        } catch (QueryEngineException e) {
+            error = e;
+        }
+        writer.flush();
+        return new QueryOutput(text.toString(), error);
+    }
+
+    /**
+     * The buffered output of one query of a query file. The text holds what executeQuery would
+     * have written before the error, if the query failed.
+     */
+    private static final class QueryOutput {
+        private final String text;
+        private final QueryEngineException error;
+
+        QueryOutput(String text, QueryEngineException error) {
+            this.text = text;
+            this.error = error;
+        }
+    }
 }
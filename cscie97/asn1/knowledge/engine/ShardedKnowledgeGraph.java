@@ -0,0 +1,394 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A knowledge graph partitioned by subject into independent shards, for graphs whose write
+ * throughput one KnowledgeGraph cannot keep up with. Each shard is a KnowledgeGraph of its own,
+ * owned by a worker thread that applies the operations posted to its mailbox one at a time, so
+ * shards never contend with each other and imports scale with the number of shards up to the
+ * number of cores.
+ *
+ * Imports and removals are asynchronous: they return once the operation is posted, and the
+ * operations posted by one thread are applied in the order they were posted. Queries are posted
+ * to the mailboxes too, so they see every operation the querying thread posted before them.
+ * A query bound on subject runs on the one shard owning the subject; any other query runs on
+ * every shard and the results are merged, without a consistent snapshot across shards.
+ * Conjunctive and transitive queries, which join triples of different subjects, are not
+ * supported in sharded mode.
+ */
+public class ShardedKnowledgeGraph implements AutoCloseable {
+
+    // Operations a shard can have waiting before posting blocks the caller
+    private static final int MAILBOX_CAPACITY = 256;
+    // Triples read by importTripleFile that are posted to a shard in one operation
+    private static final int IMPORT_BATCH_SIZE = 4096;
+    private static final Runnable STOP = () -> {};
+
+    private final Shard[] shards;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a sharded graph with one shard per available processor.
+     */
+    public ShardedKnowledgeGraph() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a sharded graph and starts the worker thread of each shard.
+     *
+     * @param shardCount the number of shards
+     */
+    public ShardedKnowledgeGraph(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the shard count
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Posts the import of a Triple to the shard owning its subject.
+     *
+     * @param subject   the identifier for the subject Node
+     * @param predicate the identifier for the Predicate
+     * @param object    the identifier for the object Node
+     */
+    public void importTriple(String subject, String predicate, String object) {
+        post(shardFor(subject), graph -> graph.importTriple(subject, predicate, object));
+    }
+
+    /**
+     * Posts the import of several Triples, one operation per shard. The Triples of each shard are
+     * imported as one write section of that shard.
+     *
+     * @param triples the triples to import, each as a subject, predicate, object array
+     */
+    public void importTriples(List<String[]> triples) {
+        List<List<String[]>> partitions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (String[] triple : triples) {
+            partitions.get(shardFor(triple[0]).number).add(triple);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            List<String[]> partition = partitions.get(i);
+            if (!partition.isEmpty()) {
+                post(shards[i], graph -> graph.importTriples(partition));
+            }
+        }
+    }
+
+    /**
+     * Imports the triples of a file in the format Importer reads. The file is parsed on the
+     * calling thread while the shards store the triples, and the method returns once every
+     * triple is stored. If a line is invalid, the triples before it are still imported.
+     *
+     * @param fileName the name of the file containing triples, which may be gzip-compressed
+     * @throws ImportException if the file cannot be read or a line is invalid; a shard failure
+     *                         found while finishing the import is attached as suppressed
+     * @throws IllegalStateException if the file was read completely but a shard failed to store
+     *                               its triples
+     */
+    public void importTripleFile(String fileName) throws ImportException {
+        TripleTokenizer tokenizer = new TripleTokenizer();
+        List<List<String[]>> batches = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            batches.add(new ArrayList<>(IMPORT_BATCH_SIZE));
+        }
+        try {
+            try (BufferedReader reader = TextFileReader.open(fileName)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (!Importer.parseTripleLine(tokenizer, line, 0, line.length(), lineNumber)) {
+                        continue;
+                    }
+                    Shard shard = shardFor(tokenizer.subject());
+                    List<String[]> batch = batches.get(shard.number);
+                    batch.add(new String[] {tokenizer.subject(), tokenizer.predicate(), tokenizer.object()});
+                    if (batch.size() == IMPORT_BATCH_SIZE) {
+                        post(shard, graph -> graph.importTriples(batch));
+                        batches.set(shard.number, new ArrayList<>(IMPORT_BATCH_SIZE));
+                    }
+                }
+            } catch (IOException e) {
+                throw new ImportException("Error reading file: " + fileName);
+            }
+        } catch (ImportException | RuntimeException e) {
+            // The triples before the failure are still imported, but the failure is what gets
+            // reported, with any shard failure attached to it
+            try {
+                postAndFlush(batches);
+            } catch (RuntimeException flushFailure) {
+                e.addSuppressed(flushFailure);
+            }
+            throw e;
+        }
+        postAndFlush(batches);
+    }
+
+    /**
+     * Posts the partly filled import batches to their shards and waits until they are applied.
+     *
+     * @throws IllegalStateException if a posted operation failed since the last flush
+     */
+    private void postAndFlush(List<List<String[]>> batches) {
+        for (int i = 0; i < shards.length; i++) {
+            List<String[]> batch = batches.get(i);
+            if (!batch.isEmpty()) {
+                post(shards[i], graph -> graph.importTriples(batch));
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Posts the removal of the Triples with the specified subject and predicate to the shard
+     * owning the subject.
+     *
+     * @param subject   the subject identifier to match (not null)
+     * @param predicate the predicate identifier to match (not null)
+     */
+    public void removeTriplesBySubjectAndPredicate(String subject, String predicate) {
+        if (subject == null || predicate == null) return;
+        post(shardFor(subject), graph -> graph.removeTriplesBySubjectAndPredicate(subject, predicate));
+    }
+
+    /**
+     * Posts the removal of every Triple mentioning the specified Node to every shard, since the
+     * Node may be the object of Triples in any shard.
+     *
+     * @param subject the subject identifier to remove
+     */
+    public void removeAllMentionsOfSubject(String subject) {
+        if (subject == null) return;
+        for (Shard shard : shards) {
+            post(shard, graph -> graph.removeAllMentionsOfSubject(subject));
+        }
+    }
+
+    /**
+     * Posts the removal of every Triple with the specified Predicate to every shard.
+     *
+     * @param predicate the predicate identifier to remove
+     */
+    public void removeAllMentionsOfPredicate(String predicate) {
+        if (predicate == null) return;
+        for (Shard shard : shards) {
+            post(shard, graph -> graph.removeAllMentionsOfPredicate(predicate));
+        }
+    }
+
+    /**
+     * Executes a query against the shards that can hold matching Triples. Wildcards can be
+     * represented by the string "?" for any of the arguments.
+     *
+     * @param subject   the identifier for the subject Node, or "?" as a wildcard
+     * @param predicate the identifier for the Predicate, or "?" as a wildcard
+     * @param object    the identifier for the object Node, or "?" as a wildcard
+     * @return a set of Triples matching the query pattern, or an empty set if none are found
+     */
+    public Set<Triple> executeQuery(String subject, String predicate, String object) {
+        if (!"?".equals(subject)) {
+            return ask(shardFor(subject), graph -> graph.executeQuery(subject, predicate, object));
+        }
+        // Each Triple is stored in exactly one shard, so the results do not overlap
+        Set<Triple> results = new HashSet<>();
+        for (Set<Triple> shardResults : askAll(graph -> graph.executeQuery(subject, predicate, object))) {
+            results.addAll(shardResults);
+        }
+        return Collections.unmodifiableSet(results);
+    }
+
+    /**
+     * Returns the number of Triples in each shard, which shows how evenly subjects are spread.
+     *
+     * @return the Triple count of each shard, by shard number
+     */
+    public int[] getShardTripleCounts() {
+        List<Integer> counts = askAll(graph -> graph.getStatistics().getTripleCount());
+        int[] result = new int[counts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until every operation posted before the call has been applied.
+     *
+     * @throws IllegalStateException if a posted operation failed since the last flush
+     */
+    public void flush() {
+        askAll(graph -> null);
+        for (Shard shard : shards) {
+            RuntimeException failure = shard.failure;
+            if (failure != null) {
+                shard.failure = null;
+                throw new IllegalStateException("Operation failed on shard " + shard.number + ": " + failure, failure);
+            }
+        }
+    }
+
+    /**
+     * Applies the operations already posted, then stops the worker threads. The graph cannot be
+     * used afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Shard shard : shards) {
+            put(shard, STOP);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the shard owning the Triples with the specified subject. Subjects that differ only
+     * in case map to the same shard, since the shard's graph treats them as one Node.
+     */
+    private Shard shardFor(String subject) {
+        int hash = CaseFoldingMap.fold(subject).hashCode();
+        hash ^= hash >>> 16;
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    /**
+     * Posts an operation that does not return a result to a shard.
+     */
+    private void post(Shard shard, Consumer<KnowledgeGraph> operation) {
+        put(shard, () -> operation.accept(shard.graph));
+    }
+
+    /**
+     * Runs a query on one shard and waits for its result.
+     */
+    private <T> T ask(Shard shard, Function<KnowledgeGraph, T> query) {
+        FutureTask<T> task = new FutureTask<>(() -> query.apply(shard.graph));
+        put(shard, task);
+        return await(task);
+    }
+
+    /**
+     * Runs a query on every shard at once and waits for all the results.
+     *
+     * @return the results by shard number
+     */
+    private <T> List<T> askAll(Function<KnowledgeGraph, T> query) {
+        List<FutureTask<T>> tasks = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            FutureTask<T> task = new FutureTask<>(() -> query.apply(shard.graph));
+            put(shard, task);
+            tasks.add(task);
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        for (FutureTask<T> task : tasks) {
+            results.add(await(task));
+        }
+        return results;
+    }
+
+    private void put(Shard shard, Runnable operation) {
+        if (closed && operation != STOP) {
+            throw new IllegalStateException("Sharded knowledge graph is closed");
+        }
+        try {
+            shard.mailbox.put(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while posting to shard " + shard.number, e);
+        }
+    }
+
+    private static <T> T await(FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * A partition of the graph, its mailbox, and the worker thread that owns it.
+     */
+    private static final class Shard {
+        private final int number;
+        private final KnowledgeGraph graph;
+        private final BlockingQueue<Runnable> mailbox = new ArrayBlockingQueue<>(MAILBOX_CAPACITY);
+        private final Thread worker;
+        // The first failure of an asynchronous operation, reported by the next flush
+        private volatile RuntimeException failure;
+
+        Shard(int number) {
+            this.number = number;
+            graph = KnowledgeGraph.createUnregistered("shard-" + number);
+            worker = new Thread(this::run, "KnowledgeGraph-Shard-" + number);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void run() {
+            while (true) {
+                Runnable operation;
+                try {
+                    operation = mailbox.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (operation == STOP) {
+                    return;
+                }
+                try {
+                    operation.run();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the triple and query files read by Importer and QueryEngine. Files are decoded as UTF-8
+ * rather than the platform default charset, so a file reads the same on every machine. Files
+ * compressed with gzip are recognized by their leading magic bytes, not their name, and are
+ * decompressed as they are read, so a multi-GB dump is never inflated to disk or held in memory.
+ */
+final class TextFileReader {
+
+    // Large buffers keep the number of reads, inflate calls, and decode calls per line low
+    private static final int BYTE_BUFFER_SIZE = 1024 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 1024 * 1024;
+    private static final int GZIP_MAGIC = 0x8B1F;
+
+    private TextFileReader() {}
+
+    /**
+     * Opens a text file, decompressing it if it is gzip-compressed.
+     *
+     * @param fileName the name of the file
+     * @return a reader of the decoded lines of the file
+     * @throws IOException if the file cannot be opened
+     */
+    static BufferedReader open(String fileName) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(fileName)), BYTE_BUFFER_SIZE);
+        try {
+            if (isGzip(in)) {
+                in = new GZIPInputStream(in, BYTE_BUFFER_SIZE);
+            }
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), CHAR_BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the file is gzip-compressed.
+     *
+     * @param fileName the name of the file
+     * @return true if the file starts with the gzip magic bytes
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isGzip(String fileName) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(fileName)), 2)) {
+            return isGzip(in);
+        }
+    }
+
+    /**
+     * Peeks at the first two bytes of the stream, leaving its position unchanged.
+     */
+    private static boolean isGzip(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first >= 0 && second >= 0 && (first | (second << 8)) == GZIP_MAGIC;
+    }
+}
@@ -21,10 +21,23 @@ public class Triple {
      * @param object    the object Node of the Triple
      */
     public Triple(Node subject, Predicate predicate, Node object) {
+        this(subject, predicate, object, System.currentTimeMillis() / 1000L); // Set to current UNIX timestamp
+    }
+
+    /**
+     * Constructs a Triple with the specified subject, predicate, object, and creation date.
+     * Used by the KnowledgeGraph to materialize a stored triple with its original creation date.
+     *
+     * @param subject    the subject Node of the Triple
+     * @param predicate  the Predicate of the Triple
+     * @param object     the object Node of the Triple
+     * @param createDate the creation date as a UNIX timestamp (seconds since epoch)
+     */
+    Triple(Node subject, Predicate predicate, Node object, long createDate) {
         this.subject = subject;
         this.predicate = predicate;
         this.object = object;
-        this.createDate = System.currentTimeMillis() / 1000L; // Set to current UNIX timestamp
+        this.createDate = createDate;
         this.identifier = subject.getIdentifier() + " " + predicate.getIdentifier() + " " + object.getIdentifier() + ".";
     }
 
@@ -73,4 +86,25 @@ public class Triple {
     public String getIdentifier() {
         return identifier;
     }
+
+    /**
+     * Two Triples are equal when their subjects, predicates, and objects are equal.
+     * The creation date is not part of the identity of a Triple.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Triple)) {
+            return false;
+        }
+        Triple that = (Triple) other;
+        return subject.equals(that.subject) && predicate.equals(that.predicate) && object.equals(that.object);
+    }
+
+    @Override
+    public int hashCode() {
+        return (subject.hashCode() * 31 + predicate.hashCode()) * 31 + object.hashCode();
+    }
 }
\ No newline at end of file
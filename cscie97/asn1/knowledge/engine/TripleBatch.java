@@ -0,0 +1,90 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects imports and removals to be applied to the KnowledgeGraph together by
+ * KnowledgeGraph.applyBatch. The operations are applied in the order they were added, under a
+ * single write, so executeQuery and executeConjunctiveQuery see either none or all of them.
+ * A TripleBatch is not thread-safe and can be applied more than once.
+ */
+public class TripleBatch {
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Adds the import of a triple to the batch.
+     *
+     * @param subject   the identifier for the subject Node
+     * @param predicate the identifier for the Predicate
+     * @param object    the identifier for the object Node
+     */
+    public void importTriple(String subject, String predicate, String object) {
+        if (subject == null || predicate == null || object == null) return;
+        operations.add(new Operation(MutationLog.IMPORT_TRIPLE, subject, predicate, object));
+    }
+
+    /**
+     * Adds the removal of all triples with the given subject and predicate to the batch.
+     *
+     * @param subject   the subject identifier to match
+     * @param predicate the predicate identifier to match
+     */
+    public void removeTriplesBySubjectAndPredicate(String subject, String predicate) {
+        if (subject == null || predicate == null) return;
+        operations.add(new Operation(MutationLog.REMOVE_TRIPLES_BY_SUBJECT_AND_PREDICATE, subject, predicate));
+    }
+
+    /**
+     * Adds the removal of all triples that mention the given subject, as subject or object, to the batch.
+     *
+     * @param subject the subject identifier to remove
+     */
+    public void removeAllMentionsOfSubject(String subject) {
+        if (subject == null) return;
+        operations.add(new Operation(MutationLog.REMOVE_ALL_MENTIONS_OF_SUBJECT, subject));
+    }
+
+    /**
+     * Adds the removal of all triples that mention the given predicate to the batch.
+     *
+     * @param predicate the predicate identifier to remove
+     */
+    public void removeAllMentionsOfPredicate(String predicate) {
+        if (predicate == null) return;
+        operations.add(new Operation(MutationLog.REMOVE_ALL_MENTIONS_OF_PREDICATE, predicate));
+    }
+
+    /**
+     * Returns the number of operations in the batch.
+     *
+     * @return the number of operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Returns the operations in the order they were added.
+     *
+     * @return the operations of the batch
+     */
+    List<Operation> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * One operation of a batch: a MutationLog operation code and the identifiers it applies to.
+     */
+    static final class Operation {
+        final byte code;
+        final String[] terms;
+
+        Operation(byte code, String... terms) {
+            this.code = code;
+            this.terms = terms;
+        }
+    }
+}
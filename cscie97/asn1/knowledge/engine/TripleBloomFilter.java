@@ -0,0 +1,208 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counting Bloom filter over the encoded triples of a KnowledgeGraph, which answers "definitely
+ * absent" for most fully bound queries that match nothing without reading the triple index.
+ * Each cell is a 4-bit counter, sixteen to a long, so triples can be removed as well as added.
+ * A counter that reaches 15 stays there, since it no longer knows how many triples set it; that
+ * only costs accuracy, never a wrong negative.
+ *
+ * The filter is sized for a number of triples at a false-positive rate; KnowledgeGraph replaces
+ * it with a larger filter when the graph outgrows it. The lookup counters are carried
+ * over to the replacement, so the statistics cover the whole time the rate was configured.
+ * Only the writer of the graph adds and removes triples; readers run under readConsistently,
+ * so a read that races with a counter update is retried.
+ */
+final class TripleBloomFilter {
+
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    private static final double LN2 = Math.log(2);
+
+    private final double falsePositiveRate;
+    private final int capacity;
+    private final long[] counters;
+    private final int cellCount;
+    private final int hashFunctions;
+    private int size;
+
+    private final LongAdder lookups;
+    private final LongAdder negatives;
+    private final LongAdder falsePositives;
+
+    /**
+     * Constructs an empty filter.
+     *
+     * @param capacity          the number of triples the filter is sized for
+     * @param falsePositiveRate the fraction of absent triples reported as possibly present when
+     *                          the filter holds capacity triples
+     */
+    TripleBloomFilter(int capacity, double falsePositiveRate) {
+        this(capacity, falsePositiveRate, new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    private TripleBloomFilter(int capacity, double falsePositiveRate, LongAdder lookups, LongAdder negatives,
+            LongAdder falsePositives) {
+        this.capacity = Math.max(1, capacity);
+        this.falsePositiveRate = falsePositiveRate;
+        // The optimal number of cells and hash functions for the capacity and rate
+        long cells = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+        long words = Math.max(1, (cells + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+        if (words > Integer.MAX_VALUE / COUNTERS_PER_WORD) {
+            throw new IllegalArgumentException("Bloom filter too large for " + capacity + " triples");
+        }
+        counters = new long[(int) words];
+        cellCount = counters.length * COUNTERS_PER_WORD;
+        hashFunctions = (int) Math.max(1, Math.min(MAX_HASH_FUNCTIONS,
+                Math.round((double) cellCount / this.capacity * LN2)));
+        this.lookups = lookups;
+        this.negatives = negatives;
+        this.falsePositives = falsePositives;
+    }
+
+    /**
+     * Returns an empty filter sized for a number of triples at the same rate, which keeps the
+     * lookup counters of this one.
+     *
+     * @param newCapacity the number of triples the new filter is sized for
+     * @return the new filter
+     */
+    TripleBloomFilter resize(int newCapacity) {
+        return new TripleBloomFilter(newCapacity, falsePositiveRate, lookups, negatives, falsePositives);
+    }
+
+    /**
+     * Returns the number of triples the filter is sized for.
+     *
+     * @return the capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns whether the filter holds more triples than it is sized for.
+     *
+     * @return true if the false-positive rate has risen above the configured one
+     */
+    boolean isFull() {
+        return size > capacity;
+    }
+
+    /**
+     * Adds a triple.
+     *
+     * @param triple the triple to add
+     */
+    void add(EncodedTriple triple) {
+        long hash = hash(triple);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashFunctions; i++) {
+            int cell = cell(h1 + i * h2);
+            int count = counter(cell);
+            if (count < MAX_COUNT) {
+                setCounter(cell, count + 1);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Removes a triple that was added.
+     *
+     * @param triple the triple to remove
+     */
+    void remove(EncodedTriple triple) {
+        long hash = hash(triple);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashFunctions; i++) {
+            int cell = cell(h1 + i * h2);
+            int count = counter(cell);
+            if (count > 0 && count < MAX_COUNT) {
+                setCounter(cell, count - 1);
+            }
+        }
+        size--;
+    }
+
+    /**
+     * Returns whether a fully bound pattern may match a triple in the graph. The lookup is not
+     * counted, since a read that is retried calls this again; the caller counts it once with
+     * recordLookup.
+     *
+     * @param pattern the pattern, with no WILDCARD positions
+     * @return false if no triple matches the pattern; true if one may
+     */
+    boolean mightContain(EncodedTriple pattern) {
+        long hash = hash(pattern);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashFunctions; i++) {
+            if (counter(cell(h1 + i * h2)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts one lookup of a query.
+     *
+     * @param negative      true if mightContain returned false
+     * @param falsePositive true if mightContain returned true but the triple index had no match
+     */
+    void recordLookup(boolean negative, boolean falsePositive) {
+        lookups.increment();
+        if (negative) {
+            negatives.increment();
+        } else if (falsePositive) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the filter's counters.
+     *
+     * @return the filter statistics
+     */
+    BloomFilterStatistics getStatistics() {
+        // (1 - e^(-kn/m))^k, the rate expected for the triples currently held
+        double expected = Math.pow(1 - Math.exp(-(double) hashFunctions * size / cellCount), hashFunctions);
+        return new BloomFilterStatistics(falsePositiveRate, expected, lookups.sum(), negatives.sum(),
+                falsePositives.sum(), size, capacity, hashFunctions, counters.length * (long) Long.BYTES);
+    }
+
+    private int counter(int cell) {
+        return (int) (counters[cell >>> 4] >>> ((cell & 15) << 2)) & MAX_COUNT;
+    }
+
+    private void setCounter(int cell, int count) {
+        int shift = (cell & 15) << 2;
+        int word = cell >>> 4;
+        counters[word] = (counters[word] & ~((long) MAX_COUNT << shift)) | ((long) count << shift);
+    }
+
+    private int cell(int hash) {
+        return (int) ((hash & 0xFFFFFFFFL) % cellCount);
+    }
+
+    /**
+     * Mixes the three IDs into 64 well-distributed bits, whose halves seed double hashing.
+     */
+    private static long hash(EncodedTriple triple) {
+        long h = ((long) triple.subject * 0x9E3779B97F4A7C15L) ^ ((long) triple.predicate * 0xC2B2AE3D27D4EB4FL)
+                ^ ((long) triple.object * 0x165667B19E3779F9L);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        // A nonzero step keeps the hash functions from all landing on one cell
+        return h | (1L << 32);
+    }
+}
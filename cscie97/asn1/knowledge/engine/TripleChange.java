@@ -0,0 +1,55 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * A Triple that was imported into or removed from the KnowledgeGraph, as delivered to a
+ * TripleChangeObserver.
+ */
+public class TripleChange {
+
+    /**
+     * Whether the Triple was imported or removed.
+     */
+    public enum Type {
+        /** The Triple was imported. */
+        ADDED,
+        /** The Triple was removed. */
+        REMOVED
+    }
+
+    private final Type type;
+    private final Triple triple;
+
+    /**
+     * Constructs a TripleChange.
+     *
+     * @param type   whether the Triple was imported or removed
+     * @param triple the Triple
+     */
+    public TripleChange(Type type, Triple triple) {
+        this.type = type;
+        this.triple = triple;
+    }
+
+    /**
+     * Returns whether the Triple was imported or removed.
+     *
+     * @return the type of change
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the Triple that was imported or removed.
+     *
+     * @return the Triple
+     */
+    public Triple getTriple() {
+        return triple;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + triple.getIdentifier();
+    }
+}
@@ -0,0 +1,30 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.List;
+
+/**
+ * Receives the changes to the KnowledgeGraph that match a pattern registered with
+ * KnowledgeGraph.subscribe. Calls are made on the subscription's own delivery thread, one at a
+ * time and in the order the changes were applied, so an observer can maintain derived state
+ * without locking as long as only it updates that state.
+ */
+public interface TripleChangeObserver {
+
+    /**
+     * Called with the next batch of matching changes. All the changes of one mutation or
+     * TripleBatch are delivered together in one call, or are dropped together. A call may hold
+     * the changes of several writes, each of them complete, up to the subscription's batch size.
+     *
+     * @param changes the changes, in the order they were applied
+     */
+    void onTripleChanges(List<TripleChange> changes);
+
+    /**
+     * Called when changes were not delivered, because the subscription's queue was full or
+     * because the graph was reloaded from a snapshot or mutation log. Derived state may be stale
+     * at that point and should be rebuilt by querying the graph.
+     *
+     * @param droppedChanges the number of changes not delivered since the last call
+     */
+    void onOverflow(long droppedChanges);
+}
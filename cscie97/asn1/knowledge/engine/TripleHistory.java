@@ -0,0 +1,236 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The past versions of removed triples, each valid from the triple's creation date up to its
+ * removal. Versions are stored in columns of parallel primitive arrays rather than as objects,
+ * so one version costs 32 bytes: the three IDs, a link to the previous version with the same
+ * subject, and the two ends of its validity interval. The links let a subject-bound query walk
+ * only the versions of its subject; other queries scan the columns.
+ *
+ * Only the writer of the KnowledgeGraph changes the history. Readers see a consistent set of
+ * columns because appending fills a slot before publishing the new size, and growing or
+ * compacting publishes a new set of columns instead of changing the old one.
+ */
+final class TripleHistory {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NONE = -1;
+
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY, 0);
+
+    // Versions referring to each ID, so the dictionaries keep identifiers that only history uses
+    private int[] nodeReferences = new int[0];
+    private int[] predicateReferences = new int[0];
+
+    /**
+     * Records the version of a triple that was just removed.
+     *
+     * @param triple    the removed triple
+     * @param removedAt the removal time, in seconds since the epoch
+     */
+    void record(EncodedTriple triple, long removedAt) {
+        Columns current = columns;
+        int size = current.size;
+        if (size == current.subjects.length || triple.subject >= current.latestBySubject.length) {
+            current = current.copy(Math.max(current.subjects.length, size + 1), triple.subject + 1);
+            columns = current;
+        }
+        current.subjects[size] = triple.subject;
+        current.predicates[size] = triple.predicate;
+        current.objects[size] = triple.object;
+        current.validFrom[size] = triple.createDate;
+        current.validTo[size] = removedAt;
+        current.previousWithSubject[size] = current.latestBySubject[triple.subject];
+        current.latestBySubject[triple.subject] = size;
+        current.size = size + 1;
+
+        nodeReferences = increment(nodeReferences, triple.subject);
+        nodeReferences = increment(nodeReferences, triple.object);
+        predicateReferences = increment(predicateReferences, triple.predicate);
+    }
+
+    /**
+     * Returns the versions matching a pattern that were valid at a time, with the start of their
+     * validity as their creation date. Any position of the pattern may be EncodedTriple.WILDCARD.
+     *
+     * @param subject   the subject Node ID, or WILDCARD
+     * @param predicate the Predicate ID, or WILDCARD
+     * @param object    the object Node ID, or WILDCARD
+     * @param time      the time, in seconds since the epoch
+     * @return the matching versions
+     */
+    List<EncodedTriple> scanAsOf(int subject, int predicate, int object, long time) {
+        Columns current = columns;
+        int size = current.size;
+        List<EncodedTriple> matches = new ArrayList<>();
+        if (subject != EncodedTriple.WILDCARD) {
+            if (subject >= current.latestBySubject.length) {
+                return matches;
+            }
+            for (int i = current.latestBySubject[subject]; i != NONE; i = current.previousWithSubject[i]) {
+                if (i < size) {
+                    addIfMatching(current, i, predicate, object, time, matches);
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                addIfMatching(current, i, predicate, object, time, matches);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Discards the versions whose validity ended at or before a time.
+     *
+     * @param time the time, in seconds since the epoch
+     * @return the discarded versions, so that identifiers no longer referenced can be removed
+     */
+    List<EncodedTriple> discardBefore(long time) {
+        Columns current = columns;
+        int size = current.size;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (current.validTo[i] > time) {
+                kept++;
+            }
+        }
+        List<EncodedTriple> discarded = new ArrayList<>(size - kept);
+        if (kept == size) {
+            return discarded;
+        }
+        Columns compacted = new Columns(Math.max(INITIAL_CAPACITY, kept), current.latestBySubject.length);
+        for (int i = 0; i < size; i++) {
+            if (current.validTo[i] > time) {
+                int j = compacted.size++;
+                compacted.subjects[j] = current.subjects[i];
+                compacted.predicates[j] = current.predicates[i];
+                compacted.objects[j] = current.objects[i];
+                compacted.validFrom[j] = current.validFrom[i];
+                compacted.validTo[j] = current.validTo[i];
+                compacted.previousWithSubject[j] = compacted.latestBySubject[current.subjects[i]];
+                compacted.latestBySubject[current.subjects[i]] = j;
+            } else {
+                discarded.add(new EncodedTriple(current.subjects[i], current.predicates[i], current.objects[i],
+                        current.validFrom[i]));
+                nodeReferences[current.subjects[i]]--;
+                nodeReferences[current.objects[i]]--;
+                predicateReferences[current.predicates[i]]--;
+            }
+        }
+        columns = compacted;
+        return discarded;
+    }
+
+    /**
+     * Returns the number of versions referring to a Node.
+     *
+     * @param nodeId the Node ID
+     * @return the number of versions with the Node as subject or object
+     */
+    int nodeReferenceCount(int nodeId) {
+        return nodeId < nodeReferences.length ? nodeReferences[nodeId] : 0;
+    }
+
+    /**
+     * Returns the number of versions referring to a Predicate.
+     *
+     * @param predicateId the Predicate ID
+     * @return the number of versions with the Predicate
+     */
+    int predicateReferenceCount(int predicateId) {
+        return predicateId < predicateReferences.length ? predicateReferences[predicateId] : 0;
+    }
+
+    /**
+     * Returns the number of versions.
+     *
+     * @return the number of recorded versions not yet discarded
+     */
+    int size() {
+        return columns.size;
+    }
+
+    /**
+     * Discards every version.
+     */
+    void clear() {
+        columns = new Columns(INITIAL_CAPACITY, 0);
+        nodeReferences = new int[0];
+        predicateReferences = new int[0];
+    }
+
+    private static void addIfMatching(Columns columns, int i, int predicate, int object, long time,
+            List<EncodedTriple> matches) {
+        if ((predicate == EncodedTriple.WILDCARD || columns.predicates[i] == predicate)
+                && (object == EncodedTriple.WILDCARD || columns.objects[i] == object)
+                && columns.validFrom[i] <= time && time < columns.validTo[i]) {
+            matches.add(new EncodedTriple(columns.subjects[i], columns.predicates[i], columns.objects[i],
+                    columns.validFrom[i]));
+        }
+    }
+
+    private static int[] increment(int[] counts, int id) {
+        if (id >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+        }
+        counts[id]++;
+        return counts;
+    }
+
+    /**
+     * One set of columns. A set is only appended to in place; growing or compacting the history
+     * builds a new set.
+     */
+    private static final class Columns {
+        final int[] subjects;
+        final int[] predicates;
+        final int[] objects;
+        final int[] previousWithSubject;
+        final long[] validFrom;
+        final long[] validTo;
+        // The newest version of each subject, by subject Node ID
+        final int[] latestBySubject;
+        volatile int size;
+
+        Columns(int capacity, int subjectCapacity) {
+            subjects = new int[capacity];
+            predicates = new int[capacity];
+            objects = new int[capacity];
+            previousWithSubject = new int[capacity];
+            validFrom = new long[capacity];
+            validTo = new long[capacity];
+            latestBySubject = new int[subjectCapacity];
+            Arrays.fill(latestBySubject, NONE);
+        }
+
+        /**
+         * Copies the columns into a new set with at least the specified capacities, doubling
+         * whichever has to grow.
+         */
+        Columns copy(int minCapacity, int minSubjectCapacity) {
+            int capacity = subjects.length;
+            if (minCapacity > capacity) {
+                capacity = Math.max(minCapacity, capacity * 2);
+            }
+            int subjectCapacity = latestBySubject.length;
+            if (minSubjectCapacity > subjectCapacity) {
+                subjectCapacity = Math.max(minSubjectCapacity, subjectCapacity * 2);
+            }
+            Columns copy = new Columns(capacity, subjectCapacity);
+            System.arraycopy(subjects, 0, copy.subjects, 0, size);
+            System.arraycopy(predicates, 0, copy.predicates, 0, size);
+            System.arraycopy(objects, 0, copy.objects, 0, size);
+            System.arraycopy(previousWithSubject, 0, copy.previousWithSubject, 0, size);
+            System.arraycopy(validFrom, 0, copy.validFrom, 0, size);
+            System.arraycopy(validTo, 0, copy.validTo, 0, size);
+            System.arraycopy(latestBySubject, 0, copy.latestBySubject, 0, latestBySubject.length);
+            copy.size = size;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Stores EncodedTriples in three sorted permutation indexes: SPO (subject, predicate, object),
+ * POS (predicate, object, subject), and OSP (object, subject, predicate). Each of the eight
+ * combinations of bound and wildcard positions in a query is a prefix of one of these orders,
+ * so every query is answered by a single range scan.
+ *
+ * Any number of threads can scan an index without locking while a writer updates it. Scans are
+ * weakly consistent: a triple added or removed during a scan may or may not be seen. Writers
+ * must be serialized by the caller.
+ *
+ * The index also keeps statistics that are updated with every add and remove, so neither the
+ * graph nor the query planner has to scan for them: the out-degree (triples with the Node as
+ * subject) and in-degree (triples with the Node as object) of each Node ID, the number of
+ * triples and of distinct subjects and objects of each Predicate ID, and histograms of the
+ * degrees. The graph uses the degrees to tell whether an identifier is still used. The
+ * statistics are written only by the writer; other threads read them through
+ * KnowledgeGraph.getStatistics, which retries if a write section ran meanwhile.
+ *
+ * Subclasses decide where the permutation indexes are stored: HeapTripleIndex keeps them in
+ * concurrent skip lists on the heap, OffHeapTripleIndex in sorted direct buffers.
+ */
+abstract class TripleIndex {
+
+    static final int MIN_ID = Integer.MIN_VALUE;
+    static final int MAX_ID = Integer.MAX_VALUE;
+
+    static final Comparator<EncodedTriple> SPO_ORDER = (a, b) -> {
+        int c = Integer.compare(a.subject, b.subject);
+        if (c != 0) return c;
+        c = Integer.compare(a.predicate, b.predicate);
+        return c != 0 ? c : Integer.compare(a.object, b.object);
+    };
+
+    static final Comparator<EncodedTriple> POS_ORDER = (a, b) -> {
+        int c = Integer.compare(a.predicate, b.predicate);
+        if (c != 0) return c;
+        c = Integer.compare(a.object, b.object);
+        return c != 0 ? c : Integer.compare(a.subject, b.subject);
+    };
+
+    static final Comparator<EncodedTriple> OSP_ORDER = (a, b) -> {
+        int c = Integer.compare(a.object, b.object);
+        if (c != 0) return c;
+        c = Integer.compare(a.subject, b.subject);
+        return c != 0 ? c : Integer.compare(a.predicate, b.predicate);
+    };
+
+    // Number of buckets in the degree histograms, enough for any int degree
+    static final int HISTOGRAM_BUCKETS = Integer.SIZE;
+
+    // Maintained by the writer, since counting the indexes is O(n)
+    private volatile int size;
+    private int[] outDegrees = new int[16];
+    private int[] inDegrees = new int[16];
+    private int[] predicateTriples = new int[16];
+    private int[] predicateSubjects = new int[16];
+    private int[] predicateObjects = new int[16];
+    private int distinctSubjects;
+    private int distinctObjects;
+    private int distinctPredicates;
+    // Bucket k counts the Nodes whose degree is in [2^k, 2^(k+1)); Nodes of degree 0 are not counted
+    private long[] outDegreeHistogram = new long[HISTOGRAM_BUCKETS];
+    private long[] inDegreeHistogram = new long[HISTOGRAM_BUCKETS];
+
+    /**
+     * Returns the stored triple with the specified IDs, or null if it is not in the index.
+     *
+     * @param subject   the subject Node ID
+     * @param predicate the Predicate ID
+     * @param object    the object Node ID
+     * @return the stored EncodedTriple, or null
+     */
+    abstract EncodedTriple get(int subject, int predicate, int object);
+
+    /**
+     * Returns a view of the triples matching the pattern. Any position may be
+     * EncodedTriple.WILDCARD. The view is backed by the index and is weakly consistent.
+     *
+     * @param subject   the subject Node ID, or WILDCARD
+     * @param predicate the Predicate ID, or WILDCARD
+     * @param object    the object Node ID, or WILDCARD
+     * @return the matching triples in index order
+     */
+    abstract Collection<EncodedTriple> scan(int subject, int predicate, int object);
+
+    /**
+     * Adds a triple that is not in the index to all three permutation indexes.
+     *
+     * @param triple the triple to add
+     */
+    protected abstract void addToIndexes(EncodedTriple triple);
+
+    /**
+     * Removes a triple from all three permutation indexes.
+     *
+     * @param triple the triple to remove
+     * @return true if the triple was present
+     */
+    protected abstract boolean removeFromIndexes(EncodedTriple triple);
+
+    /**
+     * Removes every triple from the permutation indexes.
+     */
+    protected abstract void clearIndexes();
+
+    /**
+     * Adds a triple to all three indexes.
+     *
+     * @param triple the triple to add
+     * @return true if the triple was not already present
+     */
+    boolean add(EncodedTriple triple) {
+        if (get(triple.subject, triple.predicate, triple.object) != null) {
+            return false;
+        }
+        addToIndexes(triple);
+        size++;
+        int maxNode = Math.max(triple.subject, triple.object);
+        outDegrees = grow(outDegrees, maxNode);
+        inDegrees = grow(inDegrees, maxNode);
+        predicateTriples = grow(predicateTriples, triple.predicate);
+        predicateSubjects = grow(predicateSubjects, triple.predicate);
+        predicateObjects = grow(predicateObjects, triple.predicate);
+
+        boolean newSubject = outDegrees[triple.subject]++ == 0;
+        if (newSubject) {
+            distinctSubjects++;
+        }
+        moveInHistogram(outDegreeHistogram, outDegrees[triple.subject] - 1, outDegrees[triple.subject]);
+        boolean newObject = inDegrees[triple.object]++ == 0;
+        if (newObject) {
+            distinctObjects++;
+        }
+        moveInHistogram(inDegreeHistogram, inDegrees[triple.object] - 1, inDegrees[triple.object]);
+        boolean newPredicate = predicateTriples[triple.predicate]++ == 0;
+        if (newPredicate) {
+            distinctPredicates++;
+        }
+        // The pair is new if the triple just added is the only one in its index range; the probe
+        // is skipped when a Node or the Predicate appears for the first time
+        if (newSubject || newPredicate || count(triple.subject, triple.predicate, EncodedTriple.WILDCARD, 2) == 1) {
+            predicateSubjects[triple.predicate]++;
+        }
+        if (newObject || newPredicate || count(EncodedTriple.WILDCARD, triple.predicate, triple.object, 2) == 1) {
+            predicateObjects[triple.predicate]++;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a triple from all three indexes.
+     *
+     * @param triple the triple to remove
+     * @return true if the triple was present
+     */
+    boolean remove(EncodedTriple triple) {
+        if (!removeFromIndexes(triple)) {
+            return false;
+        }
+        size--;
+        boolean lastOfSubject = --outDegrees[triple.subject] == 0;
+        if (lastOfSubject) {
+            distinctSubjects--;
+        }
+        moveInHistogram(outDegreeHistogram, outDegrees[triple.subject] + 1, outDegrees[triple.subject]);
+        boolean lastOfObject = --inDegrees[triple.object] == 0;
+        if (lastOfObject) {
+            distinctObjects--;
+        }
+        moveInHistogram(inDegreeHistogram, inDegrees[triple.object] + 1, inDegrees[triple.object]);
+        boolean lastOfPredicate = --predicateTriples[triple.predicate] == 0;
+        if (lastOfPredicate) {
+            distinctPredicates--;
+        }
+        if (lastOfSubject || lastOfPredicate || count(triple.subject, triple.predicate, EncodedTriple.WILDCARD, 1) == 0) {
+            predicateSubjects[triple.predicate]--;
+        }
+        if (lastOfObject || lastOfPredicate || count(EncodedTriple.WILDCARD, triple.predicate, triple.object, 1) == 0) {
+            predicateObjects[triple.predicate]--;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of subject and object positions the Node occupies across all triples.
+     *
+     * @param nodeId the Node ID
+     * @return the reference count, 0 if the Node is in no triple
+     */
+    int nodeReferenceCount(int nodeId) {
+        return outDegree(nodeId) + inDegree(nodeId);
+    }
+
+    /**
+     * Returns the number of triples that use the Predicate.
+     *
+     * @param predicateId the Predicate ID
+     * @return the reference count, 0 if the Predicate is in no triple
+     */
+    int predicateReferenceCount(int predicateId) {
+        return predicateId < predicateTriples.length ? predicateTriples[predicateId] : 0;
+    }
+
+    /**
+     * Returns the number of triples that have the Node as their subject.
+     *
+     * @param nodeId the Node ID
+     * @return the out-degree of the Node
+     */
+    int outDegree(int nodeId) {
+        int[] degrees = outDegrees;
+        return nodeId < degrees.length ? degrees[nodeId] : 0;
+    }
+
+    /**
+     * Returns the number of triples that have the Node as their object.
+     *
+     * @param nodeId the Node ID
+     * @return the in-degree of the Node
+     */
+    int inDegree(int nodeId) {
+        int[] degrees = inDegrees;
+        return nodeId < degrees.length ? degrees[nodeId] : 0;
+    }
+
+    /**
+     * Returns the number of distinct subjects of the triples that use the Predicate.
+     *
+     * @param predicateId the Predicate ID
+     * @return the number of distinct subjects
+     */
+    int predicateSubjectCount(int predicateId) {
+        int[] counts = predicateSubjects;
+        return predicateId < counts.length ? counts[predicateId] : 0;
+    }
+
+    /**
+     * Returns the number of distinct objects of the triples that use the Predicate.
+     *
+     * @param predicateId the Predicate ID
+     * @return the number of distinct objects
+     */
+    int predicateObjectCount(int predicateId) {
+        int[] counts = predicateObjects;
+        return predicateId < counts.length ? counts[predicateId] : 0;
+    }
+
+    /**
+     * Returns the number of Nodes that are the subject of at least one triple.
+     *
+     * @return the number of distinct subjects
+     */
+    int distinctSubjectCount() {
+        return distinctSubjects;
+    }
+
+    /**
+     * Returns the number of Nodes that are the object of at least one triple.
+     *
+     * @return the number of distinct objects
+     */
+    int distinctObjectCount() {
+        return distinctObjects;
+    }
+
+    /**
+     * Returns the number of Predicates used by at least one triple.
+     *
+     * @return the number of distinct predicates
+     */
+    int distinctPredicateCount() {
+        return distinctPredicates;
+    }
+
+    /**
+     * Returns a copy of the out-degree histogram: bucket k counts the Nodes that are the subject
+     * of between 2^k and 2^(k+1) - 1 triples.
+     *
+     * @return the out-degree histogram
+     */
+    long[] outDegreeHistogram() {
+        return outDegreeHistogram.clone();
+    }
+
+    /**
+     * Returns a copy of the in-degree histogram: bucket k counts the Nodes that are the object
+     * of between 2^k and 2^(k+1) - 1 triples.
+     *
+     * @return the in-degree histogram
+     */
+    long[] inDegreeHistogram() {
+        return inDegreeHistogram.clone();
+    }
+
+    /**
+     * Removes every triple from the index.
+     */
+    void clear() {
+        clearIndexes();
+        size = 0;
+        outDegrees = new int[16];
+        inDegrees = new int[16];
+        predicateTriples = new int[16];
+        predicateSubjects = new int[16];
+        predicateObjects = new int[16];
+        distinctSubjects = 0;
+        distinctObjects = 0;
+        distinctPredicates = 0;
+        outDegreeHistogram = new long[HISTOGRAM_BUCKETS];
+        inDegreeHistogram = new long[HISTOGRAM_BUCKETS];
+    }
+
+    /**
+     * Returns the number of triples in the index.
+     *
+     * @return the number of triples
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Counts the triples matching the pattern, stopping once the count reaches the limit.
+     * Any position may be EncodedTriple.WILDCARD. Patterns with at most one bound position are
+     * answered from the statistics without scanning.
+     *
+     * @param subject   the subject Node ID, or WILDCARD
+     * @param predicate the Predicate ID, or WILDCARD
+     * @param object    the object Node ID, or WILDCARD
+     * @param limit     the count at which to stop counting
+     * @return the number of matching triples, or limit if there are at least that many
+     */
+    int count(int subject, int predicate, int object, int limit) {
+        boolean s = subject != EncodedTriple.WILDCARD;
+        boolean p = predicate != EncodedTriple.WILDCARD;
+        boolean o = object != EncodedTriple.WILDCARD;
+        if (!s && !p && !o) {
+            return Math.min(size, limit);
+        } else if (s && !p && !o) {
+            return Math.min(outDegree(subject), limit);
+        } else if (!s && p && !o) {
+            return Math.min(predicateReferenceCount(predicate), limit);
+        } else if (!s && !p) {
+            return Math.min(inDegree(object), limit);
+        }
+        int count = 0;
+        for (EncodedTriple ignored : scan(subject, predicate, object)) {
+            if (++count >= limit) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a read-only view of every triple in SPO order.
+     *
+     * @return all triples in the index
+     */
+    Collection<EncodedTriple> all() {
+        return scan(EncodedTriple.WILDCARD, EncodedTriple.WILDCARD, EncodedTriple.WILDCARD);
+    }
+
+    /**
+     * Moves one Node between the histogram buckets of its old and new degree.
+     */
+    private static void moveInHistogram(long[] histogram, int oldDegree, int newDegree) {
+        if (oldDegree > 0) {
+            histogram[bucket(oldDegree)]--;
+        }
+        if (newDegree > 0) {
+            histogram[bucket(newDegree)]++;
+        }
+    }
+
+    private static int bucket(int degree) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(degree);
+    }
+
+    private static int[] grow(int[] counts, int id) {
+        return id < counts.length ? counts : Arrays.copyOf(counts, Math.max(counts.length * 2, id + 1));
+    }
+}
@@ -0,0 +1,70 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Defines one pattern of a conjunctive query. Each position of the pattern is either an
+ * identifier, the "?" wildcard, or a named variable such as "?x". A variable that appears in
+ * several patterns of a query must be bound to the same identifier in all of them.
+ */
+public class TriplePattern {
+    private final String subject;
+    private final String predicate;
+    private final String object;
+
+    /**
+     * Constructs a TriplePattern with the specified subject, predicate, and object terms.
+     *
+     * @param subject   the subject identifier, "?", or a variable
+     * @param predicate the predicate identifier, "?", or a variable
+     * @param object    the object identifier, "?", or a variable
+     */
+    public TriplePattern(String subject, String predicate, String object) {
+        this.subject = subject;
+        this.predicate = predicate;
+        this.object = object;
+    }
+
+    /**
+     * Returns the subject term of this pattern.
+     *
+     * @return the subject term
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Returns the predicate term of this pattern.
+     *
+     * @return the predicate term
+     */
+    public String getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Returns the object term of this pattern.
+     *
+     * @return the object term
+     */
+    public String getObject() {
+        return object;
+    }
+
+    /**
+     * Returns whether the term is a named variable: a '?' followed by a name.
+     *
+     * @param term the term to check
+     * @return true if the term is a named variable
+     */
+    public static boolean isVariable(String term) {
+        return term.length() > 1 && term.charAt(0) == '?';
+    }
+
+    /**
+     * Returns the pattern in query form, for example "?x plays_sport Hockey".
+     */
+    @Override
+    public String toString() {
+        return subject + " " + predicate + " " + object;
+    }
+}
@@ -0,0 +1,188 @@
+package cscie97.asn1.knowledge.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registration of a TripleChangeObserver for the changes matching one triple pattern, returned
+ * by KnowledgeGraph.subscribe. The matching changes of each write are put on a bounded queue as
+ * one unit when the write completes, and a delivery thread of the subscription takes them off and
+ * passes them to the observer, never splitting a unit across calls. Writers never wait for an
+ * observer: if the queue cannot take all the changes of a write, they are dropped and the
+ * observer is told through onOverflow.
+ */
+public final class TripleSubscription {
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    // Wakes the delivery thread to report dropped changes when nothing else is queued
+    private static final List<TripleChange> WAKE_UP = new ArrayList<>(0);
+
+    private final KnowledgeGraph graph;
+    private final TripleChangeObserver observer;
+    // One list per write section; the capacity counts changes, not lists
+    private final BlockingQueue<List<TripleChange>> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger queuedChanges = new AtomicInteger();
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final AtomicLong droppedChanges = new AtomicLong();
+    private final Thread deliveryThread;
+    private volatile boolean cancelled;
+    private volatile RuntimeException observerFailure;
+
+    // The pattern, with null for "?"
+    final String subject;
+    final String predicate;
+    final String object;
+
+    // Written only by the writer of the graph: the pattern's IDs, resolved when removals last
+    // changed, and the matching changes of the running write section
+    int[] resolvedIds;
+    long resolvedAtRemoval = -1;
+    final List<TripleChange> pending = new ArrayList<>();
+
+    /**
+     * Constructs a subscription and starts its delivery thread.
+     *
+     * @param graph         the graph the subscription is registered with
+     * @param subject       the subject identifier to match, or "?"
+     * @param predicate     the predicate identifier to match, or "?"
+     * @param object        the object identifier to match, or "?"
+     * @param observer      the observer changes are delivered to
+     * @param queueCapacity the number of changes that can wait for delivery
+     * @param maxBatchSize  the most changes passed to the observer in one call, unless the changes
+     *                      of a single write are more
+     */
+    TripleSubscription(KnowledgeGraph graph, String subject, String predicate, String object,
+            TripleChangeObserver observer, int queueCapacity, int maxBatchSize) {
+        if (queueCapacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        }
+        this.graph = graph;
+        this.subject = "?".equals(subject) ? null : subject;
+        this.predicate = "?".equals(predicate) ? null : predicate;
+        this.object = "?".equals(object) ? null : object;
+        this.observer = observer;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        deliveryThread = new Thread(this::deliver, "KnowledgeGraph-Subscription-" + THREAD_NUMBER.incrementAndGet());
+        deliveryThread.setDaemon(true);
+        deliveryThread.start();
+    }
+
+    /**
+     * Stops delivering changes to the observer. Changes still queued are discarded.
+     * Cancelling a subscription more than once has no effect.
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        graph.unsubscribe(this);
+        deliveryThread.interrupt();
+    }
+
+    /**
+     * Returns whether the subscription has been cancelled.
+     *
+     * @return true if cancel has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of changes waiting to be delivered.
+     *
+     * @return the queue length
+     */
+    public int getQueuedChanges() {
+        return queuedChanges.get();
+    }
+
+    /**
+     * Returns the exception the observer last threw. Such an exception does not stop delivery:
+     * it is also passed to the uncaught exception handler of the delivery thread, which prints
+     * its stack trace unless the application installed a handler of its own.
+     *
+     * @return the exception, or null if the observer has not failed
+     */
+    public RuntimeException getObserverFailure() {
+        return observerFailure;
+    }
+
+    /**
+     * Queues the pending changes of a write section that just completed, or drops them all if
+     * they do not fit. Called by the writer of the graph.
+     */
+    void publishPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (queueCapacity - queuedChanges.get() < pending.size()) {
+            drop(pending.size());
+        } else {
+            // Only the writer adds to the queue, so the checked capacity cannot shrink meanwhile
+            queuedChanges.addAndGet(pending.size());
+            queue.add(new ArrayList<>(pending));
+        }
+        pending.clear();
+    }
+
+    /**
+     * Records that changes could not be delivered, and wakes the delivery thread to report them.
+     * Called by the writer of the graph.
+     *
+     * @param count the number of changes not delivered
+     */
+    void drop(long count) {
+        droppedChanges.addAndGet(count);
+        // A queued write would wake it too, and then report the count added before
+        if (queue.isEmpty()) {
+            queue.offer(WAKE_UP);
+        }
+    }
+
+    /**
+     * Runs on the delivery thread until the subscription is cancelled.
+     */
+    private void deliver() {
+        while (!cancelled) {
+            List<TripleChange> batch = new ArrayList<>();
+            try {
+                addWrite(batch, queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Whole writes are added while they fit, so no write is split across calls
+            List<TripleChange> next;
+            while ((next = queue.peek()) != null && batch.size() + next.size() <= maxBatchSize) {
+                addWrite(batch, queue.poll());
+            }
+            try {
+                if (!batch.isEmpty() && !cancelled) {
+                    observer.onTripleChanges(batch);
+                }
+                long dropped = droppedChanges.getAndSet(0);
+                if (dropped > 0 && !cancelled) {
+                    observer.onOverflow(dropped);
+                }
+            } catch (RuntimeException e) {
+                // A failing observer must not stop later deliveries
+                observerFailure = e;
+                deliveryThread.getUncaughtExceptionHandler().uncaughtException(deliveryThread, e);
+            }
+        }
+    }
+
+    private void addWrite(List<TripleChange> batch, List<TripleChange> changes) {
+        if (changes != WAKE_UP) {
+            queuedChanges.addAndGet(-changes.size());
+            batch.addAll(changes);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package cscie97.asn1.knowledge.engine;
+
+/**
+ * Splits a line of a triple or query file into its subject, predicate, and object without
+ * allocating. The tokenizer records the start and end offsets of each term in the line; Strings
+ * are only created when a caller asks for a term. A single instance can be reused for every line
+ * of a file but must not be shared between threads.
+ *
+ * The rules are the same ones Importer and QueryEngine applied with trim() and split("\\s+"):
+ * a leading byte order mark is ignored, surrounding whitespace is ignored, the line must end
+ * with a '.', and the text before the '.' must contain exactly three whitespace-separated terms.
+ */
+public final class TripleTokenizer {
+
+    /**
+     * The outcome of tokenizing a line.
+     */
+    public enum Result {
+        /** The line is empty or contains only whitespace. */
+        BLANK,
+        /** The line does not end with a '.'. */
+        MISSING_PERIOD,
+        /** The text before the '.' does not contain exactly three terms. */
+        WRONG_TERM_COUNT,
+        /** The line contains a subject, predicate, and object. */
+        TRIPLE
+    }
+
+    private CharSequence text;
+    private int lineStart;
+    private int lineEnd;
+    private int bodyStart;
+    private int bodyEnd;
+    private final int[] termStarts = new int[3];
+    private final int[] termEnds = new int[3];
+
+    /**
+     * Tokenizes a whole line.
+     *
+     * @param line the line to tokenize
+     * @return the outcome of tokenizing the line
+     */
+    public Result tokenize(CharSequence line) {
+        return tokenize(line, 0, line.length());
+    }
+
+    /**
+     * Tokenizes the line between start (inclusive) and end (exclusive) of the text.
+     *
+     * @param text  the text containing the line
+     * @param start the offset of the first character of the line
+     * @param end   the offset just past the last character of the line
+     * @return the outcome of tokenizing the line
+     */
+    public Result tokenize(CharSequence text, int start, int end) {
+        this.text = text;
+
+        // Strip BOM character
+        if (start < end && text.charAt(start) == '\uFEFF') {
+            start++;
+        }
+
+        // Equivalent of trim()
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+        if (start == end) {
+            return Result.BLANK;
+        }
+        if (text.charAt(end - 1) != '.') {
+            return Result.MISSING_PERIOD;
+        }
+
+        end--;
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        bodyStart = start;
+        bodyEnd = end;
+
+        // Equivalent of split("\\s+") followed by trim() on each term
+        int count = 0;
+        int position = start;
+        while (position < end) {
+            int termStart = position;
+            while (position < end && !isSeparator(text.charAt(position))) {
+                position++;
+            }
+            if (count == 3) {
+                return Result.WRONG_TERM_COUNT;
+            }
+            int termEnd = position;
+            while (termStart < termEnd && text.charAt(termStart) <= ' ') {
+                termStart++;
+            }
+            while (termEnd > termStart && text.charAt(termEnd - 1) <= ' ') {
+                termEnd--;
+            }
+            termStarts[count] = termStart;
+            termEnds[count] = termEnd;
+            count++;
+            while (position < end && isSeparator(text.charAt(position))) {
+                position++;
+            }
+        }
+        return count == 3 ? Result.TRIPLE : Result.WRONG_TERM_COUNT;
+    }
+
+    /**
+     * Returns the line with the byte order mark and surrounding whitespace removed.
+     *
+     * @return the trimmed line
+     */
+    public String line() {
+        return text.subSequence(lineStart, lineEnd).toString();
+    }
+
+    /**
+     * Returns the trimmed text before the trailing '.'. Only valid when the last result was
+     * WRONG_TERM_COUNT or TRIPLE.
+     *
+     * @return the text of the line without the trailing '.'
+     */
+    public String body() {
+        return text.subSequence(bodyStart, bodyEnd).toString();
+    }
+
+    /**
+     * Returns the subject term. Only valid when the last result was TRIPLE.
+     *
+     * @return the subject
+     */
+    public String subject() {
+        return term(0);
+    }
+
+    /**
+     * Returns the predicate term. Only valid when the last result was TRIPLE.
+     *
+     * @return the predicate
+     */
+    public String predicate() {
+        return term(1);
+    }
+
+    /**
+     * Returns the object term. Only valid when the last result was TRIPLE.
+     *
+     * @return the object
+     */
+    public String object() {
+        return term(2);
+    }
+
+    /**
+     * Returns whether any of the three terms is the "?" wildcard. Only valid when the last
+     * result was TRIPLE.
+     *
+     * @return true if a term is "?"
+     */
+    public boolean hasWildcard() {
+        for (int i = 0; i < 3; i++) {
+            if (termEnds[i] - termStarts[i] == 1 && text.charAt(termStarts[i]) == '?') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String term(int index) {
+        return text.subSequence(termStarts[index], termEnds[index]).toString();
+    }
+
+    // The characters matched by the regular expression \s
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,112 @@
+package cscie97.asn1.test;
+
+import cscie97.asn1.knowledge.engine.QueryEngine;
+import cscie97.asn1.knowledge.engine.QueryEngineException;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs query files on a QueryServer. All the files are sent as batches before the first
+ * response is read, so the server works through them back to back while the output of earlier
+ * files streams back.
+ */
+public class QueryClient {
+
+    private final int port;
+
+    /**
+     * Constructs a client for a server on a loopback port.
+     *
+     * @param port the port the server listens on
+     */
+    public QueryClient(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Runs query files on the server and writes their output, in file order, to the output
+     * stream. The output is the same as QueryEngine.executeQueryFile writes for each file.
+     *
+     * @param fileNames the names of the files containing queries, read as UTF-8 and possibly
+     *                  gzip-compressed, like QueryEngine.executeQueryFile reads them
+     * @param output    the stream the queries and their results are written to
+     * @throws QueryEngineException if a file cannot be read, a query in it is invalid, or the
+     *                              server cannot be reached
+     */
+    public void executeQueryFiles(List<String> fileNames, OutputStream output) throws QueryEngineException {
+        List<List<String>> batches = new ArrayList<>();
+        for (String fileName : fileNames) {
+            batches.add(QueryEngine.readQueryFile(fileName));
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer requests = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            Thread sender = new Thread(() -> {
+                try {
+                    for (List<String> batch : batches) {
+                        requests.write(QueryServer.BATCH + " " + batch.size() + "\n");
+                        for (String line : batch) {
+                            requests.write(line);
+                            requests.write('\n');
+                        }
+                    }
+                    requests.write(QueryServer.QUIT + "\n");
+                    requests.flush();
+                } catch (IOException e) {
+                    // The connection failed, which reading the responses reports
+                }
+            }, "QueryClient-Sender");
+            sender.setDaemon(true);
+            sender.start();
+
+            DataInputStream responses = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] frame = new byte[0];
+            for (String fileName : fileNames) {
+                String line;
+                while ((line = readLine(responses)).startsWith(QueryServer.DATA + " ")) {
+                    int length = Integer.parseInt(line.substring(QueryServer.DATA.length() + 1));
+                    if (frame.length < length) {
+                        frame = new byte[length];
+                    }
+                    responses.readFully(frame, 0, length);
+                    output.write(frame, 0, length);
+                }
+                output.flush();
+                if (!line.equals(QueryServer.OK)) {
+                    String error = line.startsWith(QueryServer.ERROR + " ")
+                            ? line.substring(QueryServer.ERROR.length() + 1) : line;
+                    throw new QueryEngineException("N/A", "Error reading query file: " + fileName + ": " + error);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new QueryEngineException("N/A", "Error communicating with query server on port " + port + ": " + e);
+        }
+    }
+
+    /**
+     * Reads a frame header or status line. The error message a status may hold is UTF-8.
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Query server closed the connection");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,233 @@
+package cscie97.asn1.test;
+
+import cscie97.asn1.knowledge.engine.KnowledgeGraph;
+import cscie97.asn1.knowledge.engine.QueryEngine;
+import cscie97.asn1.knowledge.engine.QueryEngineException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves queries against a knowledge graph that stays loaded in memory, so repeated query jobs
+ * skip the import. The server listens on the loopback interface only, and handles each
+ * connection on its own thread; the graph is not modified while serving, so connections run
+ * their queries concurrently.
+ *
+ * The protocol is line-based and pipelined: a client may send any number of requests without
+ * waiting, and the responses come back in request order. Requests are UTF-8 lines:
+ * <pre>
+ * BATCH &lt;line count&gt;   followed by that many query lines, run like a query file
+ * QUIT                   closes the connection
+ * </pre>
+ * Each batch is answered by its query output, exactly what QueryEngine.executeQueryFile would
+ * have written, streamed in frames as it is produced, and then by a status line:
+ * <pre>
+ * DATA &lt;byte count&gt;     followed by that many bytes of output
+ * OK                     the batch ran completely
+ * ERROR &lt;message&gt;        the batch stopped at a query that failed, whose error follows
+ * </pre>
+ */
+public class QueryServer implements AutoCloseable {
+
+    /** Request that runs the query lines following it. */
+    public static final String BATCH = "BATCH";
+    /** Request that closes the connection. */
+    public static final String QUIT = "QUIT";
+    /** Response frame holding part of the output of a batch. */
+    public static final String DATA = "DATA";
+    /** Response status of a batch that ran completely. */
+    public static final String OK = "OK";
+    /** Response status of a batch that stopped at a query that failed. */
+    public static final String ERROR = "ERROR";
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    private final KnowledgeGraph knowledgeGraph;
+    private final ServerSocket serverSocket;
+
+    /**
+     * Constructs a server for the specified graph and binds it to a loopback port.
+     *
+     * @param knowledgeGraph the graph queries are executed against
+     * @param port           the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public QueryServer(KnowledgeGraph knowledgeGraph, int port) throws IOException {
+        this.knowledgeGraph = knowledgeGraph;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the bound port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed, serving each on a thread of its own.
+     *
+     * @throws IOException if accepting a connection fails for a reason other than close
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            Thread connection = new Thread(() -> handle(socket), "QueryServer-" + socket.getPort());
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    /**
+     * Stops accepting connections. Connections already open are served until their clients
+     * close them.
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Serves the requests of one connection in order.
+     */
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                     StandardCharsets.UTF_8));
+             OutputStream out = new BufferedOutputStream(connection.getOutputStream(), OUTPUT_BUFFER_SIZE)) {
+            FrameOutputStream frames = new FrameOutputStream(out);
+            QueryEngine queryEngine = new QueryEngine(knowledgeGraph, frames);
+            String request;
+            while ((request = in.readLine()) != null && !request.equals(QUIT)) {
+                String error;
+                if (request.startsWith(BATCH + " ")) {
+                    error = runBatch(in, queryEngine, parseLineCount(request));
+                } else {
+                    error = "Unknown request: " + request;
+                }
+                frames.writeFrame();
+                String status = error == null ? OK : ERROR + " " + error;
+                out.write((status + "\n").getBytes(StandardCharsets.UTF_8));
+                // Answer every request already received before paying for a flush
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("QueryServer connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the query lines of a batch. After an invalid query, or one that fails unexpectedly, the
+     * remaining lines of the batch are read but not run, as executeQueryFile stops at the first
+     * query that fails.
+     *
+     * @return the error of the invalid query, or null if every query ran
+     */
+    private static String runBatch(BufferedReader in, QueryEngine queryEngine, int lineCount) throws IOException {
+        String error = lineCount < 0 ? "Invalid line count" : null;
+        for (int i = 0; i < lineCount; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Connection closed in the middle of a batch");
+            }
+            if (error != null) {
+                continue;
+            }
+            if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            try {
+                queryEngine.executeQuery(line);
+            } catch (QueryEngineException e) {
+                error = e.getMessage();
+            } catch (RuntimeException e) {
+                // A failure of the engine itself ends the batch, not the connection
+                System.err.println("QueryServer query failed: " + line + ": " + e);
+                error = "Error executing query: " + line + ": " + e;
+            }
+        }
+        return error;
+    }
+
+    private static int parseLineCount(String request) {
+        try {
+            return Integer.parseInt(request.substring(BATCH.length() + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Collects the output of a batch and writes it to the connection as DATA frames, so output
+     * of any size streams through a fixed buffer. The per-query flushes of QueryEngine do not end
+     * a frame; a frame is written when the buffer fills or the batch ends.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        private final OutputStream connection;
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        private int length;
+
+        FrameOutputStream(OutputStream connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length) {
+                writeFrame();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == buffer.length) {
+                    writeFrame();
+                }
+                int chunk = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, chunk);
+                length += chunk;
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        /**
+         * Writes the buffered output as one DATA frame, if there is any.
+         *
+         * @throws IOException if the connection fails
+         */
+        void writeFrame() throws IOException {
+            if (length == 0) {
+                return;
+            }
+            connection.write((DATA + " " + length + "\n").getBytes(StandardCharsets.US_ASCII));
+            connection.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
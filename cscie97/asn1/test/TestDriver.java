@@ -2,30 +2,66 @@ package cscie97.asn1.test;
 
 import cscie97.asn1.knowledge.engine.ImportException;
 import cscie97.asn1.knowledge.engine.Importer;
+import cscie97.asn1.knowledge.engine.KnowledgeGraph;
 import cscie97.asn1.knowledge.engine.QueryEngine;
 import cscie97.asn1.knowledge.engine.QueryEngineException;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * TestDriver is the entry point for importing triples into the knowledge graph and executing queries.
- * It expects two command-line arguments: the input file containing triples and the query file.
- * Usage: java -cp . cscie97.asn1.test.TestDriver <input file> <query file>
+ * It expects two command-line arguments: the input file containing triples and the query file,
+ * optionally followed by a number of threads to evaluate the queries on concurrently.
+ *
+ * With --server it imports the input file once and then serves query files sent by --client
+ * runs on a loopback port, so repeated query jobs skip the import. Port 0 picks a free port,
+ * which the server prints.
+ * Usage: java -cp . cscie97.asn1.test.TestDriver <input file> <query file> [query threads]
+ *        java -cp . cscie97.asn1.test.TestDriver --server <input file> <port>
+ *        java -cp . cscie97.asn1.test.TestDriver --client <port> <query file>...
  */
 public class TestDriver {
 
+    private static final String USAGE = "Usage: java -cp . cscie97.asn1.test.TestDriver <input file> <query file> [query threads]\n"
+            + "       java -cp . cscie97.asn1.test.TestDriver --server <input file> <port>\n"
+            + "       java -cp . cscie97.asn1.test.TestDriver --client <port> <query file>...";
+
     /**
      * Main method that imports triples and executes queries.
      *
-     * @param args command-line arguments: input file and query file
+     * @param args command-line arguments: input file, query file, and optionally query threads;
+     *             or --server, input file, and port; or --client, port, and query files
      * @throws ImportException if an error occurs during triple import
      * @throws QueryEngineException if an error occurs during query execution
+     * @throws IOException if the server cannot listen on the port
      */
-    public static void main(String[] args) throws ImportException, QueryEngineException {
-        if(args.length != 2) {
-            System.out.println("Usage: java -cp . cscie97.asn1.test.TestDriver <input file> <query file>");
+    public static void main(String[] args) throws ImportException, QueryEngineException, IOException {
+        boolean serverMode = args.length > 0 && args[0].equals("--server");
+        boolean clientMode = args.length > 0 && args[0].equals("--client");
+        if ((serverMode && args.length != 3) || (clientMode && args.length < 3)
+                || (!serverMode && !clientMode && args.length != 2 && args.length != 3)) {
+            System.out.println(USAGE);
             System.exit(1);
         }
 
+        if (serverMode) {
+            new Importer().importTripleFile(args[1]);
+            try (QueryServer server = new QueryServer(KnowledgeGraph.getInstance(), Integer.parseInt(args[2]))) {
+                System.out.println("Serving queries on port " + server.getPort());
+                server.serve();
+            }
+            return;
+        }
+        if (clientMode) {
+            new QueryClient(Integer.parseInt(args[1])).executeQueryFiles(Arrays.asList(args).subList(2, args.length),
+                    System.out);
+            return;
+        }
         new Importer().importTripleFile(args[0]);
-        new QueryEngine().executeQueryFile(args[1]);
+        if (args.length == 3) {
+            new QueryEngine().executeQueryFileParallel(args[1], Integer.parseInt(args[2]));
+        } else {
+            new QueryEngine().executeQueryFile(args[1]);
+        }
     }
 }
@@ -2,6 +2,7 @@ package cscie97.asn4.housemate.controller;
 
 import cscie97.asn1.knowledge.engine.KnowledgeGraph;
 import cscie97.asn1.knowledge.engine.Triple;
+import cscie97.asn1.knowledge.engine.TripleBatch;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -14,9 +15,17 @@ public class OccupantTracker {
 
     private static final OccupantTracker INSTANCE = new OccupantTracker();
 
-    private final KnowledgeGraph occupantKnowledgeGraph = KnowledgeGraph.getInstance();
+    // Past locations are kept for a week unless setLocationHistoryRetention says otherwise
+    private static final long DEFAULT_LOCATION_HISTORY_RETENTION = 7 * 24 * 60 * 60;
 
-    private OccupantTracker() {}
+    // Kept apart from the ownership triples, which are far more numerous and rarely change
+    private final KnowledgeGraph occupantKnowledgeGraph = KnowledgeGraph.getInstance("housemate-occupants");
+
+    private OccupantTracker() {
+        // Past locations stay queryable through getOccupantLocationAt
+        occupantKnowledgeGraph.setTripleHistoryEnabled(true);
+        occupantKnowledgeGraph.setTripleHistoryRetention(DEFAULT_LOCATION_HISTORY_RETENTION);
+    }
 
     /**
      * Return the singleton instance of OccupantTracker.
@@ -32,15 +41,18 @@ public class OccupantTracker {
      *
      * @param occupantName the occupant name
      * @param fullyQualifiedRoomName the fully-qualified room name
-     * @implNote This method updates the occupant's location to the specified room.
+     * @implNote This method updates the occupant's location to the specified room. The room and
+     * house triples are applied as one batch, so queries never see only one of them.
      */
     public void addOccupantToRoom(String occupantName, String fullyQualifiedRoomName) {
         if (occupantName == null || fullyQualifiedRoomName == null) return;
-        occupantKnowledgeGraph.importTriple(occupantName, "is_located_in_room", fullyQualifiedRoomName);
+        TripleBatch batch = new TripleBatch();
+        batch.importTriple(occupantName, "is_located_in_room", fullyQualifiedRoomName);
         String houseName;
         int colonIndex = fullyQualifiedRoomName.indexOf(':');
         houseName = (colonIndex >= 0) ? fullyQualifiedRoomName.substring(0, colonIndex) : fullyQualifiedRoomName;
-        occupantKnowledgeGraph.importTriple(occupantName, "is_located_in_house", houseName);
+        batch.importTriple(occupantName, "is_located_in_house", houseName);
+        occupantKnowledgeGraph.applyBatch(batch);
     }
 
     /**
@@ -59,8 +71,10 @@ public class OccupantTracker {
         // KnowledgeGraph has no remove API; mark as unknown location instead.
         // occupantKnowledgeGraph.importTriple(occupantName, "is_located_in_room", "unknown");
         // occupantKnowledgeGraph.importTriple(occupantName, "is_located_in_house", "unknown");
-        occupantKnowledgeGraph.removeTriplesBySubjectAndPredicate(occupantName, "is_located_in_room");
-        occupantKnowledgeGraph.removeTriplesBySubjectAndPredicate(occupantName, "is_located_in_house");
+        TripleBatch batch = new TripleBatch();
+        batch.removeTriplesBySubjectAndPredicate(occupantName, "is_located_in_room");
+        batch.removeTriplesBySubjectAndPredicate(occupantName, "is_located_in_house");
+        occupantKnowledgeGraph.applyBatch(batch);
     }
 
     /**
@@ -137,4 +151,30 @@ public class OccupantTracker {
         }
         return "unknown";
     }
+
+    /**
+     * Set how long past occupant locations are kept for getOccupantLocationAt. Older locations
+     * are discarded as occupants move, which bounds the memory they use.
+     *
+     * @param seconds the retention in seconds, or 0 to keep every past location
+     */
+    public void setLocationHistoryRetention(long seconds) {
+        occupantKnowledgeGraph.setTripleHistoryRetention(seconds);
+    }
+
+    /**
+     * Get the location of the specified occupant at a past time.
+     * @param occupantName the occupant name
+     * @param time the time, in seconds since the epoch
+     * @return the location of the occupant at that time
+     */
+    public String getOccupantLocationAt(String occupantName, long time) {
+        if (occupantName == null) return "unknown";
+
+        Set<Triple> locations = occupantKnowledgeGraph.executeQueryAsOf(occupantName, "is_located_in_room", "?", time);
+        for (Triple triple : locations) {
+            return triple.getObject().getIdentifier();
+        }
+        return "unknown";
+    }
 }
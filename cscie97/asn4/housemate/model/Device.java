@@ -1,7 +1,7 @@
 package cscie97.asn4.housemate.model;
 
+import cscie97.asn1.knowledge.engine.CaseFoldingMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Represents an abstract device in the HouseMate model.
@@ -12,7 +12,7 @@ abstract class Device implements ModelObject {
     protected String name;
     protected String fullyQualifiedName;
     protected String type;
-    protected Map<String, String> statuses = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    protected Map<String, String> statuses = new CaseFoldingMap<>();
 
     /**
      * Constructs a Device with the specified fully qualified name and type.
@@ -1,5 +1,9 @@
 package cscie97.asn4.housemate.model;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Represents a house in the model. A House is a ModelObject that is
  * configurable and exposes its energy consumption via EnergyReadable.
@@ -23,7 +27,8 @@ class House implements ModelObject, Configurable, EnergyReadable {
     }
 
     /**
-     * Return a human-readable configuration description for this house.
+     * Return a human-readable configuration description for this house. The rooms and their
+     * devices are read from the knowledge graph with a single transitive query.
      *
      * @return formatted configuration string for the house
      */
@@ -31,10 +36,11 @@ class House implements ModelObject, Configurable, EnergyReadable {
     public String getConfiguration() {
         StringBuilder sb = new StringBuilder(String.format("\nHouse Configuration:\nHouse: name=%s, address=%s\n", name, address));
 
-        for (String roomName : ModelServiceApiImpl.getInstance().getOwnedObjects(this)) {
+        Map<String, Set<String>> hierarchy = ModelServiceApiImpl.getInstance().getOwnershipHierarchy(this);
+        for (String roomName : hierarchy.getOrDefault(fullyQualifiedName, Collections.emptySet())) {
             ModelObject obj = ModelServiceApiImpl.getInstance().getModelObject(roomName);
             if (obj instanceof Room) {
-                sb.append(((Room) obj).getConfiguration());
+                sb.append(((Room) obj).getConfiguration(hierarchy));
             }
         }
 
@@ -43,7 +49,8 @@ class House implements ModelObject, Configurable, EnergyReadable {
 
     /**
      * Compute the total energy consumption (in watts) for this house by
-     * summing the energy consumption of all directly owned rooms.
+     * summing the energy consumption of all directly owned rooms. The rooms and their
+     * appliances are read from the knowledge graph with a single transitive query.
      *
      * @return total energy consumption in watts
      */
@@ -51,10 +58,11 @@ class House implements ModelObject, Configurable, EnergyReadable {
     public double getEnergyConsumptionWatts() {
         double energyConsumptionWatts = 0.0;
 
-        for (String roomName : ModelServiceApiImpl.getInstance().getOwnedObjects(this)) {
+        Map<String, Set<String>> hierarchy = ModelServiceApiImpl.getInstance().getOwnershipHierarchy(this);
+        for (String roomName : hierarchy.getOrDefault(fullyQualifiedName, Collections.emptySet())) {
             ModelObject obj = ModelServiceApiImpl.getInstance().getModelObject(roomName);
             if (obj instanceof Room) {
-                energyConsumptionWatts += ((Room) obj).getEnergyConsumptionWatts();
+                energyConsumptionWatts += ((Room) obj).getEnergyConsumptionWatts(hierarchy);
             }
         }
         return energyConsumptionWatts;
@@ -1,5 +1,6 @@
 package cscie97.asn4.housemate.model;
 
+import cscie97.asn1.knowledge.engine.CaseFoldingMap;
 import cscie97.asn1.knowledge.engine.KnowledgeGraph;
 import cscie97.asn1.knowledge.engine.Triple;
 import cscie97.asn4.housemate.controller.StatusObserver;
@@ -7,7 +8,6 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 
 /**
  * The ModelServiceApi class provides a singleton API for managing model objects in the housemate system.
@@ -15,8 +15,9 @@ import java.util.TreeMap;
  */
 public class ModelServiceApiImpl implements ModelServiceApi {
     private static ModelServiceApiImpl instance = null;
-    private Map <String, ModelObject> modelObjects = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-    private KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance();
+    private Map <String, ModelObject> modelObjects = new CaseFoldingMap<>();
+    // Ownership triples have a graph of their own, so occupant updates never touch its indexes
+    private KnowledgeGraph knowledgeGraph = KnowledgeGraph.getInstance("housemate-ownership");
     private final ArrayList<StatusObserver> statusObservers = new ArrayList<>();
 
     private ModelServiceApiImpl() {
@@ -78,6 +79,23 @@ public class ModelServiceApiImpl implements ModelServiceApi {
         return ownedObjects;
     }
 
+    /**
+     * Gets everything the specified owner owns directly or indirectly, such as every room of a
+     * house and every device in those rooms, with one transitive query.
+     * @param owner The object owner.
+     * @return A map from the fully qualified name of each owner in the hierarchy, including the
+     *         specified owner, to the fully qualified names of the objects it directly owns.
+     */
+    Map<String, Set<String>> getOwnershipHierarchy(ModelObject owner) {
+        Set<Triple> triples = knowledgeGraph.executeTransitiveQuery(owner.getFullyQualifiedName(), "has_a");
+        Map<String, Set<String>> hierarchy = new CaseFoldingMap<>();
+        for (Triple triple : triples) {
+            hierarchy.computeIfAbsent(triple.getSubject().getIdentifier(), key -> new HashSet<>())
+                    .add(triple.getObject().getIdentifier());
+        }
+        return hierarchy;
+    }
+
     /**
      * Execute a command by reading each line and passing it to the CommandParser.
      *
@@ -1,5 +1,7 @@
 package cscie97.asn4.housemate.model;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -38,10 +40,21 @@ class Room implements ModelObject, EnergyReadable, Configurable {
      */
     @Override
     public String getConfiguration() {
+        return getConfiguration(Map.of(fullyQualifiedName, ModelServiceApiImpl.getInstance().getOwnedObjects(this)));
+    }
+
+    /**
+     * Return a human-readable configuration description for this room, taking the devices it
+     * owns from an ownership hierarchy the caller already read.
+     *
+     * @param hierarchy map from the fully qualified name of each owner to the names of the objects it owns
+     * @return formatted configuration string for the room
+     */
+    String getConfiguration(Map<String, Set<String>> hierarchy) {
         StringBuilder sb = new StringBuilder(String.format
         ("\nRoom Configuration:\nRoom: name=%s, type=%s, floor=%s, numWindows=%d\n", name, type, floor, numWindows));
 
-        Set<String> devices = ModelServiceApiImpl.getInstance().getOwnedObjects(this);
+        Set<String> devices = hierarchy.getOrDefault(fullyQualifiedName, Collections.emptySet());
 
         for (String deviceName : devices) {
             ModelObject obj = ModelServiceApiImpl.getInstance().getModelObject(deviceName);
@@ -61,7 +74,18 @@ class Room implements ModelObject, EnergyReadable, Configurable {
      */
     @Override
     public double getEnergyConsumptionWatts() {
-        Set<String> devices = ModelServiceApiImpl.getInstance().getOwnedObjects(this);
+        return getEnergyConsumptionWatts(Map.of(fullyQualifiedName, ModelServiceApiImpl.getInstance().getOwnedObjects(this)));
+    }
+
+    /**
+     * Compute the total energy consumption (in watts) for this room, taking the appliances it
+     * owns from an ownership hierarchy the caller already read.
+     *
+     * @param hierarchy map from the fully qualified name of each owner to the names of the objects it owns
+     * @return total energy consumption in watts
+     */
+    double getEnergyConsumptionWatts(Map<String, Set<String>> hierarchy) {
+        Set<String> devices = hierarchy.getOrDefault(fullyQualifiedName, Collections.emptySet());
 
         double energyConsumptionWatts = 0.0;
 